@@ -0,0 +1,271 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+// Runs many (program, stdin, expected stdout) cases in one JVM.
+//
+// A directory runs every "*.txt" program in it; "name.in" and "name.out" next to
+// a program are used as its stdin and expected stdout when present. Any other
+// path is read as a manifest with one case per line:
+//
+// program<TAB>stdin<TAB>expected<TAB>tenant<TAB>priority
+//
+// where every field after the program is optional ("-" or missing means none,
+// and a priority of 1), relative paths are resolved against the manifest
+// directory and lines starting with '#' are ignored. Each distinct program is
+// compiled once and all cases run concurrently through a Scheduler. The report
+// is written as one JSON object per line.
+class Batch {
+    static class Case {
+        final String program;
+        final String stdin;
+        final String expected;
+        final String tenant;
+        final int priority;
+
+        Case(String program, String stdin, String expected, String tenant, int priority) {
+            this.program = program;
+            this.stdin = stdin;
+            this.expected = expected;
+            this.tenant = tenant;
+            this.priority = priority;
+        }
+    }
+
+    static class Result {
+        final Case testCase;
+        final String status;
+        final long compileNanos;
+        final long runNanos;
+        final long latencyNanos;
+        final String diagnostic;
+        final Usage usage;
+
+        Result(Case testCase, String status, long compileNanos, long runNanos, long latencyNanos,
+                String diagnostic, Usage usage) {
+            this.testCase = testCase;
+            this.status = status;
+            this.compileNanos = compileNanos;
+            this.runNanos = runNanos;
+            this.latencyNanos = latencyNanos;
+            this.diagnostic = diagnostic;
+            this.usage = usage;
+        }
+    }
+
+    private final List<Case> cases;
+    private final Limits limits;
+    int workers = Runtime.getRuntime().availableProcessors();
+    long quantum = Scheduler.DEFAULT_QUANTUM;
+    int tenantSlots = 0;
+    String traceDirectory = null;
+    int traceCapacity = Trace.DEFAULT_CAPACITY;
+
+    Batch(String path, Limits limits) throws IOException {
+        File file = new File(path);
+        if (!file.exists())
+            throw new IOException(String.format("Manifest '%s' not found.", path));
+        this.cases = file.isDirectory() ? scanDirectory(file) : readManifest(file);
+        this.limits = limits;
+    }
+
+    private static List<Case> scanDirectory(File directory) {
+        List<Case> cases = new ArrayList<Case>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".txt"));
+        if (files == null)
+            return cases;
+        Arrays.sort(files);
+        for (File program : files) {
+            String base = program.getPath().substring(0, program.getPath().length() - ".txt".length());
+            cases.add(new Case(program.getPath(), existing(base + ".in"), existing(base + ".out"), null, 1));
+        }
+
+        return cases;
+    }
+
+    private static String existing(String path) {
+        return new File(path).isFile() ? path : null;
+    }
+
+    private static List<Case> readManifest(File manifest) throws IOException {
+        List<Case> cases = new ArrayList<Case>();
+        File base = manifest.getAbsoluteFile().getParentFile();
+        List<String> lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+        for (int number = 1; number <= lines.size(); number++) {
+            String line = lines.get(number - 1);
+            if (line.isBlank() || line.startsWith("#"))
+                continue;
+            String[] fields = line.split("\t");
+            cases.add(new Case(resolve(base, fields[0]), fields.length > 1 ? resolve(base, fields[1]) : null,
+                    fields.length > 2 ? resolve(base, fields[2]) : null,
+                    fields.length > 3 && !fields[3].equals("-") ? fields[3] : null,
+                    fields.length > 4 ? priority(fields[4].trim(), manifest, number) : 1));
+        }
+
+        return cases;
+    }
+
+    private static int priority(String field, File manifest, int number) throws IOException {
+        if (field.isEmpty() || field.equals("-"))
+            return 1;
+        try {
+            return Integer.parseInt(field);
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("%s:%d: Invalid priority '%s'.", manifest.getPath(), number, field));
+        }
+    }
+
+    private static String resolve(File base, String path) {
+        if (path.isEmpty() || path.equals("-"))
+            return null;
+        File file = new File(path);
+
+        return file.isAbsolute() ? path : new File(base, path).getPath();
+    }
+
+    List<Result> execute() throws Exception {
+        Map<String, CFPL> programs = new LinkedHashMap<String, CFPL>();
+        Map<String, Long> compileNanos = new LinkedHashMap<String, Long>();
+        for (Case c : cases) {
+            if (programs.containsKey(c.program))
+                continue;
+            long start = System.nanoTime();
+            CFPL cfpl;
+            try {
+                cfpl = CFPL.compileCached(CFPL.readSource(c.program),
+                        new File(c.program).getAbsoluteFile().getParentFile());
+            } catch (IOException e) {
+                cfpl = null;
+            }
+            compileNanos.put(c.program, System.nanoTime() - start);
+            programs.put(c.program, cfpl);
+        }
+
+        Scheduler scheduler = new Scheduler(workers, quantum, tenantSlots);
+        List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        for (int i = 0; i < cases.size(); i++) {
+            Case c = cases.get(i);
+            int index = i;
+            long submitted = System.nanoTime();
+            futures.add(scheduler.submit(c.tenant, c.priority,
+                    () -> runCase(index, c, programs.get(c.program), compileNanos.get(c.program), submitted)));
+        }
+        // a case that cannot run is reported as an error rather than ending the batch
+        List<Result> results = new ArrayList<Result>();
+        for (int i = 0; i < futures.size(); i++)
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                Case c = cases.get(i);
+                results.add(new Result(c, "error", compileNanos.get(c.program), 0, 0, e.getCause().getMessage(),
+                        new Usage()));
+            }
+
+        return results;
+    }
+
+    private Result runCase(int index, Case c, CFPL cfpl, long compileNanos, long submitted) throws IOException {
+        if (cfpl == null)
+            return new Result(c, "error", compileNanos, 0, 0, "File not found.", new Usage());
+        InputStream input = c.stdin == null ? InputStream.nullInputStream() : InputLog.replay(c.stdin);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+        long start = System.nanoTime();
+        Trace trace = traceDirectory == null ? null : new Trace(cfpl, traceCapacity);
+        Usage usage = new Usage();
+        String diagnostic = cfpl.execute(input, out, limits, trace, usage);
+        long runNanos = System.nanoTime() - start;
+        if (diagnostic != null && trace != null && trace.written() > 0)
+            trace.dump(new File(traceDirectory, String.format("%d-%s.trace", index,
+                    new File(c.program).getName())).getPath());
+        out.flush();
+        String status = diagnostic == null ? "ok" : "error";
+        if (c.expected != null) {
+            String expected;
+            try {
+                expected = Files.readString(new File(c.expected).toPath(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                return new Result(c, "error", compileNanos, runNanos, System.nanoTime() - submitted,
+                        String.format("Expected output '%s' cannot be read.", c.expected), usage);
+            }
+            String actual = buffer.toString(StandardCharsets.UTF_8);
+            status = normalize(expected).equals(normalize(actual)) ? "pass" : "fail";
+        }
+
+        return new Result(c, status, compileNanos, runNanos, System.nanoTime() - submitted, diagnostic, usage);
+    }
+
+    private static String normalize(String text) {
+        return text.replace("\r\n", "\n");
+    }
+
+    int run(PrintStream report) throws Exception {
+        long start = System.nanoTime();
+        List<Result> results = execute();
+        int passed = 0, failed = 0, errors = 0;
+        for (Result result : results) {
+            if (result.status.equals("pass"))
+                passed++;
+            else if (result.status.equals("fail"))
+                failed++;
+            else if (result.status.equals("error"))
+                errors++;
+            report.println(String.format(
+                    "{\"program\":%s,\"stdin\":%s,\"tenant\":%s,\"status\":\"%s\",\"compileMicros\":%d,\"runMicros\":%d,\"latencyMicros\":%d,\"allocatedBytes\":%d,\"peakStringLength\":%d,\"liveValues\":%d,\"diagnostic\":%s}",
+                    json(result.testCase.program), json(result.testCase.stdin), json(result.testCase.tenant),
+                    result.status, result.compileNanos / 1000, result.runNanos / 1000, result.latencyNanos / 1000,
+                    result.usage.allocatedBytes, result.usage.peakStringLength, result.usage.liveValues,
+                    json(result.diagnostic)));
+        }
+        report.println(String.format(
+                "{\"summary\":true,\"cases\":%d,\"passed\":%d,\"failed\":%d,\"errors\":%d,\"workers\":%d,\"totalMicros\":%d}",
+                results.size(), passed, failed, errors, workers, (System.nanoTime() - start) / 1000));
+        report.flush();
+
+        return failed + errors > 0 ? 1 : 0;
+    }
+
+    static String json(String value) {
+        if (value == null)
+            return "null";
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+}
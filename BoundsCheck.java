@@ -0,0 +1,355 @@
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Hoists array bounds checks out of counted loops by loop versioning.
+//
+// A WHILE loop qualifies when its condition is `i < n` or `i <= n` for an INT
+// variable i and an INT literal or variable n, and its body assigns i only in
+// its last statement, as `i = i + c` with a literal c >= 0, and never assigns
+// n. Then every a[i] in the body sees 0 <= i < a's length as long as i >= 0 and
+// n fits a when the loop starts. hoist() gives such a loop a Guard for that
+// test and a copy of its body in which those accesses skip their bounds check;
+// the Interpreter runs the copy when the guard holds on loop entry. A FOR loop
+// always qualifies, since its body cannot assign the loop variable; its range
+// is tested against the arrays once the bounds are known. Loops over SUB or
+// FUNCTION locals, and loops whose body calls one, are left alone, as a call
+// may assign any global.
+class BoundsCheck implements ParsingStatement.Visitor<ParsingStatement>,
+        ParsingExpression.Visitor<ParsingExpression> {
+    static class Guard {
+        final Token index;
+        final Token bound;
+        final int constant;
+        final int inclusive;
+        final int step;
+        final Token[] arrays;
+
+        Guard(Token index, Token bound, int constant, boolean inclusive, int step, Token[] arrays) {
+            this.index = index;
+            this.bound = bound;
+            this.constant = constant;
+            this.inclusive = inclusive ? 1 : 0;
+            this.step = step;
+            this.arrays = arrays;
+        }
+
+        boolean holds(Storage variables) throws Exception {
+            Object i = variables.get(index);
+            Object n = bound == null ? (Object) constant : variables.get(bound);
+            if (!(i instanceof Integer) || (int) i < 0 || !(n instanceof Integer))
+                return false;
+            long needed = (long) (int) n + inclusive;
+            // the last increment must not wrap i around to a negative index
+            if (needed + step > Integer.MAX_VALUE)
+                return false;
+
+            return covers(variables, arrays, needed - 1);
+        }
+    }
+
+    // Whether every array in `arrays` has an element at index `high`.
+    static boolean covers(Storage variables, Token[] arrays, long high) throws Exception {
+        for (Token array : arrays) {
+            Object value = variables.get(array);
+            if (value == null || !value.getClass().isArray() || Array.getLength(value) <= high)
+                return false;
+        }
+
+        return true;
+    }
+
+    private final String index;
+    private final Set<String> assigned = new HashSet<String>();
+    private final Set<String> arrays = new HashSet<String>();
+    private final List<Token> arrayTokens = new ArrayList<Token>();
+    private boolean calls = false;
+
+    private BoundsCheck(String index) {
+        this.index = index;
+    }
+
+    // Returns `loop` with a guard and an unchecked body when it qualifies, or
+    // `loop` itself.
+    static ParsingStatement.While hoist(ParsingStatement.While loop, Map<String, TokenType> types)
+            throws Exception {
+        if (!(loop.condition instanceof ParsingExpression.Binary) || !(loop.body instanceof ParsingStatement.Block))
+            return loop;
+        ParsingExpression.Binary condition = (ParsingExpression.Binary) loop.condition;
+        TokenType comparison = condition.operator.type;
+        if ((comparison != TokenType.LESSER && comparison != TokenType.LESSER_EQUAL)
+                || !(condition.left instanceof ParsingExpression.Variable))
+            return loop;
+        Token index = ((ParsingExpression.Variable) condition.left).name;
+        if (types.get(index.lexeme) != TokenType.INT || ((ParsingExpression.Variable) condition.left).slot >= 0)
+            return loop;
+        Token bound = null;
+        int constant = 0;
+        if (condition.right instanceof ParsingExpression.Variable) {
+            bound = ((ParsingExpression.Variable) condition.right).name;
+            if (types.get(bound.lexeme) != TokenType.INT || bound.lexeme.equals(index.lexeme)
+                    || ((ParsingExpression.Variable) condition.right).slot >= 0)
+                return loop;
+        } else if (condition.right instanceof ParsingExpression.Literal
+                && ((ParsingExpression.Literal) condition.right).value instanceof Integer)
+            constant = (int) ((ParsingExpression.Literal) condition.right).value;
+        else
+            return loop;
+
+        List<ParsingStatement> statements = ((ParsingStatement.Block) loop.body).statements;
+        if (statements.isEmpty())
+            return loop;
+        int step = increment(statements.get(statements.size() - 1), index.lexeme);
+        if (step < 0)
+            return loop;
+        BoundsCheck copier = new BoundsCheck(index.lexeme);
+        List<ParsingStatement> unchecked = new ArrayList<ParsingStatement>();
+        for (ParsingStatement stmt : statements.subList(0, statements.size() - 1))
+            unchecked.add(copier.statement(stmt));
+        unchecked.add(statements.get(statements.size() - 1));
+        if (copier.arrayTokens.isEmpty() || copier.calls || copier.assigned.contains(index.lexeme)
+                || bound != null && copier.assigned.contains(bound.lexeme))
+            return loop;
+
+        Guard guard = new Guard(index, bound, constant, comparison == TokenType.LESSER_EQUAL, step,
+                copier.arrayTokens.toArray(new Token[0]));
+        return new ParsingStatement.While(loop.condition, loop.body, loop.token, guard,
+                new ParsingStatement.Block(unchecked, loop.body.token));
+    }
+
+    static ParsingStatement.For hoist(ParsingStatement.For loop) throws Exception {
+        BoundsCheck copier = new BoundsCheck(loop.variable.name.lexeme);
+        ParsingStatement unchecked = copier.statement(loop.body);
+        if (copier.arrayTokens.isEmpty() || copier.calls || copier.assigned.contains(loop.variable.name.lexeme))
+            return loop;
+
+        return new ParsingStatement.For(loop.variable, loop.start, loop.end, loop.step, loop.body, loop.observed,
+                loop.calls, loop.token, copier.arrayTokens.toArray(new Token[0]), unchecked);
+    }
+
+    // The c of a final `i = i + c` or `i = c + i` statement, or -1.
+    private static int increment(ParsingStatement last, String index) {
+        if (!(last instanceof ParsingStatement.Expression)
+                || !(((ParsingStatement.Expression) last).expression instanceof ParsingExpression.Assign))
+            return -1;
+        ParsingExpression.Assign assign = (ParsingExpression.Assign) ((ParsingStatement.Expression) last).expression;
+        if (!assign.name.lexeme.equals(index) || !(assign.value instanceof ParsingExpression.Binary))
+            return -1;
+        ParsingExpression.Binary sum = (ParsingExpression.Binary) assign.value;
+        if (sum.operator.type != TokenType.ADDITION)
+            return -1;
+        ParsingExpression step;
+        if (isVariable(sum.left, index))
+            step = sum.right;
+        else if (isVariable(sum.right, index))
+            step = sum.left;
+        else
+            return -1;
+        if (!(step instanceof ParsingExpression.Literal) || !(((ParsingExpression.Literal) step).value instanceof Integer))
+            return -1;
+
+        return Math.max(-1, (int) ((ParsingExpression.Literal) step).value);
+    }
+
+    private static boolean isVariable(ParsingExpression expr, String name) {
+        while (expr instanceof ParsingExpression.Grouping)
+            expr = ((ParsingExpression.Grouping) expr).expression;
+
+        return expr instanceof ParsingExpression.Variable && ((ParsingExpression.Variable) expr).name.lexeme.equals(name);
+    }
+
+    private ParsingStatement statement(ParsingStatement stmt) throws Exception {
+        return stmt == null ? null : stmt.visit(this);
+    }
+
+    private ParsingExpression expression(ParsingExpression expr) throws Exception {
+        return expr == null ? null : expr.visit(this);
+    }
+
+    private ParsingExpression[] expressions(ParsingExpression[] exprs) throws Exception {
+        if (exprs == null)
+            return null;
+        ParsingExpression[] copy = new ParsingExpression[exprs.length];
+        for (int i = 0; i < exprs.length; i++)
+            copy[i] = expression(exprs[i]);
+
+        return copy;
+    }
+
+    private boolean proven(Token array, ParsingExpression index) {
+        if (!isVariable(index, this.index))
+            return false;
+        if (arrays.add(array.lexeme))
+            arrayTokens.add(array);
+
+        return true;
+    }
+
+    @Override
+    public ParsingStatement block(ParsingStatement.Block stmt) throws Exception {
+        List<ParsingStatement> statements = new ArrayList<ParsingStatement>();
+        for (ParsingStatement statement : stmt.statements)
+            statements.add(statement(statement));
+
+        return new ParsingStatement.Block(statements, stmt.token);
+    }
+
+    @Override
+    public ParsingStatement expression(ParsingStatement.Expression stmt) throws Exception {
+        return new ParsingStatement.Expression(expression(stmt.expression), stmt.token);
+    }
+
+    @Override
+    public ParsingStatement ifS(ParsingStatement.If stmt) throws Exception {
+        return new ParsingStatement.If(expression(stmt.condition), statement(stmt.thenBranch),
+                statement(stmt.elseBranch), stmt.token);
+    }
+
+    @Override
+    public ParsingStatement print(ParsingStatement.Print stmt) throws Exception {
+        return new ParsingStatement.Print(expression(stmt.expression), stmt.token);
+    }
+
+    @Override
+    public ParsingStatement input(ParsingStatement.Input stmt) throws Exception {
+        for (ParsingExpression.Variable v : stmt.variables)
+            assigned.add(v.name.lexeme);
+
+        return stmt;
+    }
+
+    @Override
+    public ParsingStatement var(ParsingStatement.Var stmt) throws Exception {
+        assigned.add(stmt.name.lexeme);
+
+        return new ParsingStatement.Var(stmt.name, expression(stmt.initializer));
+    }
+
+    @Override
+    public ParsingStatement whileS(ParsingStatement.While stmt) throws Exception {
+        return new ParsingStatement.While(expression(stmt.condition), statement(stmt.body), stmt.token, stmt.guard,
+                statement(stmt.uncheckedBody));
+    }
+
+    @Override
+    public ParsingStatement forS(ParsingStatement.For stmt) throws Exception {
+        assigned.add(stmt.variable.name.lexeme);
+
+        return new ParsingStatement.For(stmt.variable, expression(stmt.start), expression(stmt.end),
+                expression(stmt.step), statement(stmt.body), stmt.observed, stmt.calls, stmt.token, stmt.arrays,
+                statement(stmt.uncheckedBody));
+    }
+
+    @Override
+    public ParsingStatement parallelFor(ParsingStatement.ParallelFor stmt) throws Exception {
+        for (ParsingExpression.Variable target : stmt.targets)
+            assigned.add(target.name.lexeme);
+
+        return new ParsingStatement.ParallelFor((ParsingStatement.For) forS(stmt.loop), stmt.targets,
+                stmt.reductions, stmt.concurrent, stmt.token);
+    }
+
+    @Override
+    public ParsingStatement vectorized(ParsingStatement.Vectorized stmt) throws Exception {
+        return new ParsingStatement.Vectorized(statement(stmt.loop), stmt.kernel);
+    }
+
+    @Override
+    public ParsingStatement function(ParsingStatement.Function stmt) {
+        return stmt;
+    }
+
+    @Override
+    public ParsingStatement returnS(ParsingStatement.Return stmt) throws Exception {
+        return new ParsingStatement.Return(expression(stmt.value), expressions(stmt.tailArguments), stmt.function,
+                stmt.token);
+    }
+
+    @Override
+    public ParsingStatement caseS(ParsingStatement.Case stmt) throws Exception {
+        ParsingStatement[] branches = new ParsingStatement[stmt.branches.length];
+        for (int i = 0; i < branches.length; i++)
+            branches[i] = statement(stmt.branches[i]);
+
+        return new ParsingStatement.Case(expression(stmt.selector), stmt.type, stmt.labels, branches,
+                statement(stmt.elseBranch), stmt.token);
+    }
+
+    @Override
+    public ParsingStatement jump(ParsingStatement.Jump stmt) {
+        return stmt;
+    }
+
+    @Override
+    public ParsingExpression assign(ParsingExpression.Assign expr) throws Exception {
+        assigned.add(expr.name.lexeme);
+
+        return new ParsingExpression.Assign(expr.name, expression(expr.value), expr.type, expr.slot);
+    }
+
+    @Override
+    public ParsingExpression binary(ParsingExpression.Binary expr) throws Exception {
+        return new ParsingExpression.Binary(expression(expr.left), expr.operator, expression(expr.right));
+    }
+
+    @Override
+    public ParsingExpression grouping(ParsingExpression.Grouping expr) throws Exception {
+        return new ParsingExpression.Grouping(expression(expr.expression));
+    }
+
+    @Override
+    public ParsingExpression literal(ParsingExpression.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public ParsingExpression logical(ParsingExpression.Logical expr) throws Exception {
+        return new ParsingExpression.Logical(expression(expr.left), expr.operator, expression(expr.right));
+    }
+
+    @Override
+    public ParsingExpression unary(ParsingExpression.Unary expr) throws Exception {
+        return new ParsingExpression.Unary(expr.operator, expression(expr.right));
+    }
+
+    @Override
+    public ParsingExpression variable(ParsingExpression.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public ParsingExpression allocate(ParsingExpression.Allocate expr) throws Exception {
+        return new ParsingExpression.Allocate(expr.type, expression(expr.length), expr.bracket);
+    }
+
+    @Override
+    public ParsingExpression index(ParsingExpression.Index expr) throws Exception {
+        ParsingExpression index = expression(expr.index);
+        boolean proven = proven(expr.name, index);
+        return new ParsingExpression.Index(expr.name, index, expr.bracket, expr.checked && !proven);
+    }
+
+    @Override
+    public ParsingExpression setIndex(ParsingExpression.SetIndex expr) throws Exception {
+        ParsingExpression index = expression(expr.index);
+        ParsingExpression value = expression(expr.value);
+        boolean proven = proven(expr.name, index);
+        return new ParsingExpression.SetIndex(expr.name, index, value, expr.type, expr.bracket,
+                expr.checked && !proven);
+    }
+
+    @Override
+    public ParsingExpression call(ParsingExpression.Call expr) throws Exception {
+        calls = true;
+
+        return new ParsingExpression.Call(expr.name, expressions(expr.arguments), expr.function);
+    }
+
+    @Override
+    public ParsingExpression builtin(ParsingExpression.Builtin expr) throws Exception {
+        return new ParsingExpression.Builtin(expr.name, expr.intrinsic, expressions(expr.arguments));
+    }
+}
@@ -1,35 +1,167 @@
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CFPL {
+    private static final int MAX_CACHED_PROGRAMS = 1024;
+    private static final ConcurrentHashMap<String, CFPL> compiled = new ConcurrentHashMap<String, CFPL>();
     private Lexer lexer;
     private Parser parser;
-    private Interpreter interpret;
     private String sourceCode;
+    private String errorType = "";
+    private List<ParsingStatement> statements;
+    private Exception compileError;
+    // Where INCLUDE looks for relative file names; null when only absolute
+    // names can be included.
+    private File directory;
+    // Set for a file compiled by Module, which can only hold declarations.
+    private String moduleName;
+    // The files INCLUDE brought in, directly or not, with the hash of their
+    // source when compiled.
+    final Map<String, String> includes = new LinkedHashMap<String, String>();
+
+    private CFPL() {
+    }
 
     public CFPL(String filePath) {
-        File file = new File(filePath);
         sourceCode = "";
+        directory = new File(filePath).getAbsoluteFile().getParentFile();
         try {
-            BufferedReader br = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8));
-            String temp = "";
-            while ((temp = br.readLine()) != null) {
-                sourceCode += temp + "\n";
-            }
-            br.close();
+            sourceCode = readSource(filePath);
         } catch (Exception e) {
             System.out.print("[Error] File not found.");
         }
     }
 
+    static String readSource(String filePath) throws IOException {
+        File file = new File(filePath);
+        StringBuilder source = new StringBuilder();
+        BufferedReader br = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8));
+        String temp = "";
+        while ((temp = br.readLine()) != null)
+            source.append(temp).append('\n');
+        br.close();
+
+        return source.toString();
+    }
+
+    public static CFPL compileCached(String sourceCode) {
+        return compileCached(sourceCode, null);
+    }
+
+    // Programs are keyed by their source and the directory INCLUDE reads
+    // from. A cached program is compiled again when one of its includes has
+    // changed since.
+    public static CFPL compileCached(String sourceCode, File directory) {
+        String key = sha256(directory == null ? sourceCode : directory.getAbsolutePath() + '\0' + sourceCode);
+        CFPL cfpl = compiled.get(key);
+        if (cfpl != null && cfpl.isCurrent()) {
+            Metrics.compileCacheHits.increment();
+            return cfpl;
+        }
+        Metrics.compileCacheMisses.increment();
+        if (compiled.size() >= MAX_CACHED_PROGRAMS)
+            compiled.clear();
+        CFPL stale = cfpl;
+        cfpl = fromSource(sourceCode, directory);
+        try {
+            cfpl.compile();
+        } catch (Exception e) {
+            // cached as well; execute() reports the error on every run
+        }
+        if (stale != null) {
+            compiled.put(key, cfpl);
+            return cfpl;
+        }
+        CFPL previous = compiled.putIfAbsent(key, cfpl);
+
+        return previous != null ? previous : cfpl;
+    }
+
+    // False when a file this program includes no longer has the source it
+    // was compiled from.
+    boolean isCurrent() {
+        for (Map.Entry<String, String> include : includes.entrySet())
+            try {
+                if (!sha256(readSource(include.getKey())).equals(include.getValue()))
+                    return false;
+            } catch (IOException e) {
+                return false;
+            }
+
+        return true;
+    }
+
+    static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static CFPL fromSource(String sourceCode) {
+        return fromSource(sourceCode, null);
+    }
+
+    public static CFPL fromSource(String sourceCode, File directory) {
+        CFPL cfpl = new CFPL();
+        cfpl.sourceCode = sourceCode;
+        cfpl.directory = directory;
+        return cfpl;
+    }
+
+    static CFPL module(String sourceCode, File file) {
+        CFPL cfpl = fromSource(sourceCode, file.getAbsoluteFile().getParentFile());
+        cfpl.moduleName = file.getPath();
+        return cfpl;
+    }
+
+    // The file name of a module, or null for a program.
+    String name() {
+        return moduleName;
+    }
+
+    // The parser of the last compile(), which holds its symbol tables.
+    Parser parser() {
+        return parser;
+    }
+
+    // The file an INCLUDE of `name` refers to, or null for a relative name in
+    // a program that was not read from a directory.
+    File resolve(String name) {
+        File file = new File(name);
+        if (file.isAbsolute())
+            return file;
+
+        return directory == null ? null : new File(directory, name);
+    }
+
     public String getSourceCode() {
         return sourceCode;
     }
 
-    private String getCodeAtLine(int lineNumber) {
+    public String getErrorType() {
+        return errorType;
+    }
+
+    String getCodeAtLine(int lineNumber) {
         int start = 0;
         int end = 0;
         int line = 0;
@@ -47,64 +179,553 @@ public class CFPL {
         return sourceCode.substring(start, end);
     }
 
-    public Exception newError(Token token, String message) {
-        String lineCode = getCodeAtLine(token.line);
-        String errorPoint = " ".repeat(token.column - 1) + "^";
-
-        return new Exception(
-                String.format("%s\n[line: %d, column: %d] on %s '%s'.\n%s\n%s", message, token.line + 1, token.column,
-                        token.type,
-                        token.lexeme,
-                        lineCode, errorPoint));
+    Diagnostic newError(Diagnostic.Phase phase, String code, Token token, String format, Object... arguments) {
+        return new Diagnostic(this, phase, code, token, format, arguments);
     }
 
-    public Exception newError(int line, int column, String atFault, String message) {
-        String lineCode = getCodeAtLine(line);
-        String errorPoint = " ".repeat(column - 1) + "^";
-
-        return new Exception(
-                String.format("%s\n[line: %d, column: %d] on %s.\n%s\n%s", message, line + 1, column, atFault, lineCode,
-                        errorPoint));
+    Diagnostic newError(Diagnostic.Phase phase, String code, int line, int column, String atFault, String format,
+            Object... arguments) {
+        return new Diagnostic(this, phase, code, line, column, atFault, format, arguments);
     }
 
-    public void execute() throws Exception {
-        String errorType = "";
+    public synchronized List<ParsingStatement> compile() throws Exception {
+        if (compileError != null)
+            throw compileError;
+        if (statements != null)
+            return statements;
         try {
             lexer = new Lexer(this);
             List<Token> tokens;
+            Events.Lex lex = Events.recording() ? new Events.Lex() : null;
+            if (lex != null)
+                lex.begin();
+            long start = System.nanoTime();
             try {
                 tokens = lexer.run();
+                if (moduleName != null)
+                    for (Token token : tokens)
+                        token.source = this;
             } catch (Exception e) {
                 errorType = "Lexer-Error";
                 throw e;
+            } finally {
+                Metrics.lexNanos.record(System.nanoTime() - start);
+                if (lex != null && lex.shouldCommit()) {
+                    lex.sourceSize = sourceCode.length();
+                    lex.tokens = lexer.getTokens().size();
+                    lex.errorType = errorType.isEmpty() ? null : errorType;
+                    lex.commit();
+                }
             }
             parser = new Parser(this);
-            List<ParsingStatement> statements;
+            Events.Parse parse = Events.recording() ? new Events.Parse() : null;
+            if (parse != null)
+                parse.begin();
+            start = System.nanoTime();
             try {
                 statements = parser.parse(tokens);
             } catch (Exception e) {
                 errorType = "Parser-Error";
                 throw e;
+            } finally {
+                Metrics.parseNanos.record(System.nanoTime() - start);
+                if (parse != null && parse.shouldCommit()) {
+                    parse.tokens = tokens.size();
+                    parse.statements = parser.statements.size();
+                    parse.errorType = errorType.isEmpty() ? null : errorType;
+                    parse.commit();
+                }
             }
-            interpret = new Interpreter(this);
+            Metrics.programsCompiled.increment();
+        } catch (Exception e) {
+            Metrics.errors.increment();
+            compileError = e;
+            throw e;
+        }
+
+        return statements;
+    }
+
+    // Lexes and parses the program without stopping at the first error,
+    // returning up to maxErrors diagnostics in source order. The lexer still
+    // stops at its first error, since the tokens after it are unreliable.
+    List<Diagnostic> check(int maxErrors) throws Exception {
+        List<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+        List<Token> tokens;
+        try {
+            tokens = new Lexer(this).run();
+        } catch (Diagnostic e) {
+            diagnostics.add(e);
+            return diagnostics;
+        }
+        Parser checker = new Parser(this, maxErrors);
+        checker.parse(tokens);
+        diagnostics.addAll(checker.diagnostics);
+
+        return diagnostics;
+    }
+
+    public void execute() throws Exception {
+        execute(System.in, System.out);
+    }
+
+    public String execute(InputStream in, PrintStream out) {
+        return execute(in, out, Limits.NONE);
+    }
+
+    public String execute(InputStream in, PrintStream out, Limits limits) {
+        return execute(in, out, limits, null);
+    }
+
+    public String execute(InputStream in, PrintStream out, Limits limits, Probe probe) {
+        return execute(in, out, limits, probe, null);
+    }
+
+    // Runs the program with `probe` receiving its execution events, or plain
+    // when probe is null; see Instrumenter. When `usage` is given, it receives
+    // the resources the run used, including allocated bytes.
+    public String execute(InputStream in, PrintStream out, Limits limits, Probe probe, Usage usage) {
+        List<ParsingStatement> statements;
+        try {
+            statements = compile();
+        } catch (Exception e) {
+            out.print(String.format("[%s] %s", errorType, e.getMessage()));
+            return e.getMessage();
+        }
+        Interpreter interpret = new Interpreter(this, in, out, limits);
+        interpret.measureAllocation = usage != null;
+        Events.Execute execution = Events.recording() ? new Events.Execute() : null;
+        if (probe == null && execution != null && new Events.Statement().isEnabled())
+            probe = new Events.StatementSampler();
+        if (probe != null) {
             try {
-                interpret.interpret(statements);
+                statements = Instrumenter.instrument(statements, probe);
             } catch (Exception e) {
-                errorType = "Interpreter-Error";
-                throw e;
+                out.print(String.format("[Error] %s", e.getMessage()));
+                return e.getMessage();
             }
+            probe.attach(interpret);
+        }
+        String errorType = null;
+        String message = null;
+        if (execution != null)
+            execution.begin();
+        long start = System.nanoTime();
+        try {
+            interpret.interpret(statements);
+        } catch (LimitExceededException e) {
+            errorType = "Limit-Error";
+            message = e.getMessage();
+            Metrics.limitViolations.increment();
         } catch (Exception e) {
-            System.out.print(String.format("[%s] %s", errorType, e.getMessage()));
+            errorType = "Interpreter-Error";
+            message = e.getMessage();
+            Metrics.errors.increment();
+        } finally {
+            if (probe != null)
+                probe.detach();
+        }
+        Metrics.executeNanos.record(System.nanoTime() - start);
+        long allocated = interpret.allocatedBytes();
+        long liveValues = interpret.liveValues();
+        if (allocated >= 0) {
+            Metrics.allocatedBytes.add(allocated);
+            Metrics.executeAllocatedBytes.record(allocated);
+        }
+        Metrics.peakStringLength.accumulate(interpret.peakStringLength);
+        Metrics.peakLiveValues.accumulate(liveValues);
+        Metrics.programsExecuted.increment();
+        Metrics.statementsExecuted.add(interpret.statementsExecuted);
+        Metrics.loopIterations.add(interpret.loopIterations);
+        Metrics.boxedIncurred.add(interpret.boxedValues);
+        Metrics.boxedAvoided.add(interpret.unboxedValues);
+        Metrics.outputBytes.add(interpret.outputBytes);
+        Metrics.inputBytes.add(interpret.inputBytes);
+        if (execution != null && execution.shouldCommit()) {
+            execution.statements = interpret.statementsExecuted;
+            execution.loopIterations = interpret.loopIterations;
+            execution.outputBytes = interpret.outputBytes;
+            execution.allocatedBytes = allocated;
+            execution.peakStringLength = interpret.peakStringLength;
+            execution.errorType = errorType;
+            execution.commit();
+        }
+        if (usage != null) {
+            usage.statements = interpret.statementsExecuted;
+            usage.loopIterations = interpret.loopIterations;
+            usage.outputBytes = interpret.outputBytes;
+            usage.allocatedBytes = allocated;
+            usage.peakStringLength = interpret.peakStringLength;
+            usage.liveValues = liveValues;
+        }
+        if (errorType != null)
+            out.print(String.format("[%s] %s", errorType, message));
+
+        return message;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: CFPL [options] <file path>");
+        System.err.println("       CFPL [options] --repl");
+        System.err.println("       CFPL [options] --batch <directory | manifest>");
+        System.err.println("       CFPL [options] --serve <socket path>");
+        System.err.println("       CFPL --connect <socket path> <file path>");
+        System.err.println("       CFPL --decode-trace <trace file>");
+        System.err.println("       CFPL --check [--max-errors <n>] [--workers <n>] <file | directory>...");
+        System.err.println("       CFPL --conformance <directory> [conformance options]");
+        System.err.println("Options:");
+        System.err.println("  --max-statements <n>  stop after executing n statements");
+        System.err.println("  --max-loops <n>       stop after n loop iterations");
+        System.err.println("  --max-output <n>      stop after writing n bytes of output");
+        System.err.println("  --timeout <ms>        stop after running for ms milliseconds;");
+        System.err.println("                        in conformance mode, per run (default 10000)");
+        System.err.println("  --max-memory <n>      stop after allocating about n bytes");
+        System.err.println("  --profile             print a per-line profile to stderr");
+        System.err.println("  --profile-sample      like --profile, timing lines by sampling");
+        System.err.println("  --flamegraph <file>   write collapsed stacks of the profile to file");
+        System.err.println("  --metrics             print runtime metrics to stderr when done");
+        System.err.println("  --debug               stop at the first statement in the debugger");
+        System.err.println("  --break <lines>       stop in the debugger at these lines, comma-separated");
+        System.err.println("  --watch <names>       trace writes to these variables, or all with \"*\"");
+        System.err.println("  --coverage            print line and branch coverage to stderr");
+        System.err.println("  --trace <path>        record a trace and write it to path if the run fails;");
+        System.err.println("                        in batch mode, path is a directory for failing cases");
+        System.err.println("  --trace-always        write the trace even if the run succeeds");
+        System.err.println("  --trace-size <n>      number of trace events kept (default 65536)");
+        System.err.println("  --record-input <file> save every value read by INPUT to file");
+        System.err.println("  --replay-input <file> read INPUT values from a recorded file instead of stdin");
+        System.err.println("Batch options:");
+        System.err.println("  --workers <n>         number of programs running at once");
+        System.err.println("  --quantum <n>         loop iterations a program runs before yielding");
+        System.err.println("  --tenant-slots <n>    most programs of one tenant running at once");
+        System.err.println("Conformance options:");
+        System.err.println("  --repeats <n>         runs per test and engine, keeping the best (default 5)");
+        System.err.println("  --tolerance <pct>     slowdown or extra allocation that fails a test (default 25)");
+        System.err.println("  --baseline <file>     baseline to compare with (default out/baseline.tsv)");
+        System.err.println("  --update-baseline     write this run's measurements as the new baseline");
+        System.err.println("  --accept              rewrite stale expected transcripts in test headers");
+        System.exit(64);
+    }
+
+    private static String optionValue(String[] args, int index) {
+        if (index >= args.length)
+            usage();
+        return args[index];
+    }
+
+    private static long longOption(String[] args, int index) {
+        return longValue(args[index - 1], optionValue(args, index));
+    }
+
+    private static long longValue(String option, String text) {
+        try {
+            long value = Long.parseLong(text.trim());
+            if (value >= 0)
+                return value;
+        } catch (NumberFormatException e) {
+        }
+        System.err.println(String.format("Invalid value for %s.", option));
+        usage();
+        return 0;
+    }
+
+    // The debugger reads commands from the terminal, so that the program can
+    // still take its INPUT from a redirected stdin.
+    private static BufferedReader debuggerInput() {
+        try {
+            return new BufferedReader(new FileReader("/dev/tty", StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
         }
     }
 
     public static void main(String[] args) throws Exception {
-        if (args.length != 1) {
-            System.err.println("Usage: CFPL <file path>");
-            System.exit(64);
+        Limits limits = new Limits();
+        long workers = 0, quantum = 0, tenantSlots = 0;
+        String batch = null;
+        boolean repl = false;
+        String serve = null;
+        String connect = null;
+        String filePath = null;
+        List<String> checked = null;
+        String conformance = null;
+        String baseline = null;
+        long repeats = Conformance.DEFAULT_REPEATS;
+        long tolerance = Conformance.DEFAULT_TOLERANCE;
+        boolean updateBaseline = false;
+        boolean accept = false;
+        long maxErrors = Check.DEFAULT_MAX_ERRORS;
+        String profile = null;
+        String flamegraph = null;
+        boolean metrics = false;
+        boolean debug = false;
+        boolean coverage = false;
+        Set<Integer> breakpoints = new TreeSet<Integer>();
+        Set<String> watches = null;
+        String trace = null;
+        boolean traceAlways = false;
+        long traceSize = Trace.DEFAULT_CAPACITY;
+        String recordInput = null;
+        String replayInput = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--batch":
+                    batch = optionValue(args, ++i);
+                    break;
+                case "--repl":
+                    repl = true;
+                    break;
+                case "--serve":
+                    serve = optionValue(args, ++i);
+                    break;
+                case "--connect":
+                    connect = optionValue(args, ++i);
+                    break;
+                case "--max-statements":
+                    limits.maxStatements = longOption(args, ++i);
+                    break;
+                case "--max-loops":
+                    limits.maxLoopIterations = longOption(args, ++i);
+                    break;
+                case "--max-output":
+                    limits.maxOutputBytes = longOption(args, ++i);
+                    break;
+                case "--timeout":
+                    limits.timeoutMillis = longOption(args, ++i);
+                    break;
+                case "--max-memory":
+                    limits.maxMemoryBytes = longOption(args, ++i);
+                    break;
+                case "--profile":
+                case "--profile-sample":
+                    profile = args[i];
+                    break;
+                case "--flamegraph":
+                    flamegraph = optionValue(args, ++i);
+                    break;
+                case "--metrics":
+                    metrics = true;
+                    break;
+                case "--debug":
+                    debug = true;
+                    break;
+                case "--break":
+                    for (String line : optionValue(args, ++i).split(","))
+                        breakpoints.add((int) longValue(args[i - 1], line));
+                    break;
+                case "--watch":
+                    if (watches == null)
+                        watches = new TreeSet<String>();
+                    for (String name : optionValue(args, ++i).split(","))
+                        if (!name.isBlank() && !name.equals("*"))
+                            watches.add(name.trim());
+                    break;
+                case "--coverage":
+                    coverage = true;
+                    break;
+                case "--trace":
+                    trace = optionValue(args, ++i);
+                    break;
+                case "--trace-always":
+                    traceAlways = true;
+                    break;
+                case "--trace-size":
+                    traceSize = Math.min(longOption(args, ++i), 1 << 26);
+                    break;
+                case "--record-input":
+                    recordInput = optionValue(args, ++i);
+                    break;
+                case "--replay-input":
+                    replayInput = optionValue(args, ++i);
+                    break;
+                case "--decode-trace":
+                    try {
+                        Trace.decode(optionValue(args, ++i), System.out);
+                    } catch (IOException e) {
+                        System.err.println(String.format("[Error] %s", e.getMessage()));
+                        System.exit(1);
+                    }
+                    return;
+                case "--conformance":
+                    conformance = optionValue(args, ++i);
+                    break;
+                case "--repeats":
+                    repeats = longOption(args, ++i);
+                    break;
+                case "--tolerance":
+                    tolerance = longOption(args, ++i);
+                    break;
+                case "--baseline":
+                    baseline = optionValue(args, ++i);
+                    break;
+                case "--update-baseline":
+                    updateBaseline = true;
+                    break;
+                case "--accept":
+                    accept = true;
+                    break;
+                case "--check":
+                    checked = new ArrayList<String>();
+                    if (filePath != null)
+                        checked.add(filePath);
+                    filePath = null;
+                    break;
+                case "--max-errors":
+                    maxErrors = longOption(args, ++i);
+                    break;
+                case "--workers":
+                    workers = longOption(args, ++i);
+                    break;
+                case "--quantum":
+                    quantum = longOption(args, ++i);
+                    break;
+                case "--tenant-slots":
+                    tenantSlots = longOption(args, ++i);
+                    break;
+                default:
+                    if (args[i].startsWith("--"))
+                        usage();
+                    if (checked != null)
+                        checked.add(args[i]);
+                    else if (filePath == null)
+                        filePath = args[i];
+                    else
+                        usage();
+            }
         }
-        CFPL cfpl = new CFPL(args[0]);
+        if (conformance != null) {
+            if (checked != null || filePath != null || batch != null || serve != null || connect != null)
+                usage();
+            Conformance runner = new Conformance(conformance);
+            if (workers > 0)
+                runner.workers = (int) workers;
+            runner.repeats = (int) Math.min(repeats, Integer.MAX_VALUE);
+            runner.tolerance = tolerance;
+            if (baseline != null)
+                runner.baseline = baseline;
+            runner.updateBaseline = updateBaseline;
+            runner.accept = accept;
+            if (!limits.isUnlimited()) {
+                if (limits.timeoutMillis == 0)
+                    limits.timeoutMillis = Conformance.DEFAULT_TIMEOUT_MILLIS;
+                runner.limits = limits;
+            }
+            System.exit(runner.run(System.out));
+        }
+        if (checked != null) {
+            if (checked.isEmpty() || batch != null || serve != null || connect != null)
+                usage();
+            Check check = new Check(checked);
+            if (workers > 0)
+                check.workers = (int) workers;
+            check.maxErrors = (int) Math.min(maxErrors, Integer.MAX_VALUE);
+            System.exit(check.run(System.out));
+        }
+        if (repl) {
+            if (filePath != null || batch != null || serve != null || connect != null)
+                usage();
+            Repl session = new Repl(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                    System.out, limits, System.console() != null);
+            Thread thread = Interpreter.newThread(() -> {
+                try {
+                    session.run();
+                } catch (IOException e) {
+                    System.err.println(String.format("[Error] %s", e.getMessage()));
+                }
+            }, "cfpl-repl");
+            thread.start();
+            thread.join();
+            if (metrics)
+                System.err.println(Metrics.snapshotJson());
+            return;
+        }
+        if (serve != null && batch == null && connect == null && filePath == null) {
+            Metrics.registerMBean();
+            new Daemon(serve, limits).serve();
+            return;
+        }
+        if (connect != null && batch == null && serve == null && filePath != null) {
+            Daemon.client(connect, filePath);
+            return;
+        }
+        if (batch != null && filePath == null) {
+            Batch runner;
+            try {
+                runner = new Batch(batch, limits);
+            } catch (IOException e) {
+                System.err.println(String.format("[Error] %s", e.getMessage()));
+                System.exit(1);
+                return;
+            }
+            if (workers > 0)
+                runner.workers = (int) workers;
+            if (quantum > 0)
+                runner.quantum = quantum;
+            runner.tenantSlots = (int) tenantSlots;
+            if (trace != null) {
+                new File(trace).mkdirs();
+                runner.traceDirectory = trace;
+                runner.traceCapacity = (int) traceSize;
+            }
+            Metrics.registerMBean();
+            int status = runner.run(System.out);
+            if (metrics)
+                System.err.println(Metrics.snapshotJson());
+            System.exit(status);
+        }
+        if (filePath == null || batch != null || serve != null || connect != null)
+            usage();
+        CFPL cfpl = new CFPL(filePath);
         // CFPL cfpl = new CFPL("./tests/0.txt");
-        cfpl.execute();
+        List<Probe> probes = new ArrayList<Probe>();
+        Profiler profiler = null;
+        if (profile != null || flamegraph != null)
+            probes.add(profiler = new Profiler(cfpl, "--profile-sample".equals(profile)));
+        Coverage lines = null;
+        if (coverage)
+            probes.add(lines = new Coverage(cfpl));
+        if (watches != null)
+            probes.add(new Watch(watches, System.err));
+        if (debug || !breakpoints.isEmpty())
+            probes.add(new Debugger(cfpl, breakpoints, debug, debuggerInput(), System.err));
+        Trace recorder = null;
+        if (trace != null)
+            probes.add(recorder = new Trace(cfpl, (int) traceSize));
+        InputLog inputLog = null;
+        if (recordInput != null)
+            probes.add(inputLog = new InputLog());
+        InputStream in = System.in;
+        if (replayInput != null) {
+            try {
+                in = InputLog.replay(replayInput);
+            } catch (IOException e) {
+                System.err.println(String.format("[Error] %s", e.getMessage()));
+                System.exit(1);
+            }
+        }
+        String diagnostic = cfpl.execute(in, System.out, limits,
+                probes.isEmpty() ? null : Probe.of(probes.toArray(new Probe[0])), metrics ? new Usage() : null);
+        if (inputLog != null)
+            inputLog.write(recordInput);
+        if (recorder != null && recorder.written() > 0 && (diagnostic != null || traceAlways))
+            recorder.dump(trace);
+        if (lines != null) {
+            System.out.flush();
+            lines.report(System.err);
+        }
+        if (profiler != null) {
+            System.out.flush();
+            if (profile != null)
+                profiler.report(System.err);
+            if (flamegraph != null) {
+                try (PrintStream collapsed = new PrintStream(flamegraph, StandardCharsets.UTF_8)) {
+                    profiler.writeCollapsed(collapsed);
+                }
+            }
+        }
+        if (metrics) {
+            System.out.flush();
+            System.err.println(Metrics.snapshotJson());
+        }
     }
 }
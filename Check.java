@@ -0,0 +1,82 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Validates many programs in one sweep without running them.
+//
+// Directories are searched recursively for "*.txt" programs. Every program is
+// lexed and parsed in recovering mode on a pool of `workers` threads, and each
+// of its errors is reported as "path:line:column: [Phase] code: message", in
+// the order the paths were given.
+class Check {
+    static final int DEFAULT_MAX_ERRORS = 100;
+    private final List<String> files = new ArrayList<String>();
+    int workers = Runtime.getRuntime().availableProcessors();
+    int maxErrors = DEFAULT_MAX_ERRORS;
+
+    Check(List<String> paths) {
+        for (String path : paths)
+            collect(new File(path));
+    }
+
+    private void collect(File file) {
+        if (!file.isDirectory()) {
+            files.add(file.getPath());
+            return;
+        }
+        File[] children = file.listFiles((dir, name) -> name.endsWith(".txt") || new File(dir, name).isDirectory());
+        if (children == null)
+            return;
+        Arrays.sort(children);
+        for (File child : children)
+            collect(child);
+    }
+
+    private List<String> check(String path) {
+        List<String> lines = new ArrayList<String>();
+        try {
+            CFPL cfpl = CFPL.fromSource(CFPL.readSource(path), new File(path).getAbsoluteFile().getParentFile());
+            for (Diagnostic error : cfpl.check(maxErrors))
+                lines.add(String.format("%s:%d:%d: [%s] %s: %s", path, error.line + 1, error.column,
+                        error.phase.label, error.code, error.summary()));
+        } catch (IOException e) {
+            lines.add(String.format("%s: [Error] File not found.", path));
+        } catch (Exception e) {
+            lines.add(String.format("%s: [Error] %s", path, e.getMessage()));
+        }
+
+        return lines;
+    }
+
+    int run(PrintStream out) throws Exception {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers));
+        int failedFiles = 0, errors = 0;
+        try {
+            List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+            for (String file : files)
+                results.add(pool.submit(() -> check(file)));
+            for (Future<List<String>> result : results) {
+                List<String> lines = result.get();
+                if (!lines.isEmpty())
+                    failedFiles++;
+                errors += lines.size();
+                for (String line : lines)
+                    out.println(line);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        out.println(String.format("Checked %d files: %d with errors, %d errors in %d ms", files.size(), failedFiles,
+                errors, (System.nanoTime() - start) / 1_000_000));
+        out.flush();
+
+        return errors > 0 ? 1 : 0;
+    }
+}
@@ -0,0 +1,316 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Conformance and performance regression runner for the programs in tests/.
+//
+// The leading '*' comment lines of a test are its expectation: "*> text" is a
+// line of stdin and "* text" is a line of the expected console transcript,
+// which is stdout with every stdin line echoed where the program reads it. The
+// header ends at the first other line, so a blank line keeps a '*' comment
+// after it from being read as output. Each test runs on every engine in
+// ENGINES, in parallel, and the best thread CPU time and allocated bytes out of
+// `repeats` runs are compared with the baseline file. A test fails when its
+// transcript differs, or when it is more than `tolerance` percent slower or
+// heavier than its baseline. Every run has a time limit, so a test that hangs
+// fails instead of stalling the whole run.
+class Conformance {
+    static final String[] ENGINES = { "interpreter", "instrumented" };
+    static final int DEFAULT_REPEATS = 5;
+    static final long DEFAULT_TOLERANCE = 25;
+    static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+    // Differences below these never count as regressions; tiny tests are noisy.
+    private static final long MIN_CPU_NANOS = 1_000_000;
+    private static final long MIN_ALLOCATED_BYTES = 16 * 1024;
+
+    static class Test {
+        final File file;
+        final String source;
+        final List<String> stdin = new ArrayList<String>();
+        final List<String> expected = new ArrayList<String>();
+        final boolean hasHeader;
+        final int headerLines;
+
+        Test(File file) throws IOException {
+            this.file = file;
+            this.source = CFPL.readSource(file.getPath());
+            int lines = 0;
+            for (String line : source.split("\n", -1)) {
+                if (line.startsWith("*>"))
+                    stdin.add(strip(line.substring(2)));
+                else if (line.startsWith("* ") || line.equals("*"))
+                    expected.add(strip(line.substring(1)));
+                else
+                    break;
+                lines++;
+            }
+            this.headerLines = lines;
+            this.hasHeader = lines > 0;
+        }
+
+        private static String strip(String text) {
+            return text.startsWith(" ") ? text.substring(1) : text;
+        }
+
+        String name() {
+            return file.getName();
+        }
+    }
+
+    static class Result {
+        final Test test;
+        final String engine;
+        final String transcript;
+        final long cpuNanos;
+        final long allocatedBytes;
+
+        Result(Test test, String engine, String transcript, long cpuNanos, long allocatedBytes) {
+            this.test = test;
+            this.engine = engine;
+            this.transcript = transcript;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    private final File directory;
+    int workers = Runtime.getRuntime().availableProcessors();
+    int repeats = DEFAULT_REPEATS;
+    long tolerance = DEFAULT_TOLERANCE;
+    String baseline = "out/baseline.tsv";
+    boolean updateBaseline = false;
+    boolean accept = false;
+    Limits limits = new Limits();
+
+    Conformance(String directory) {
+        this.directory = new File(directory);
+        limits.timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    }
+
+    private List<Test> load() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".txt"));
+        if (files == null)
+            throw new IOException(String.format("%s is not a directory.", directory));
+        Arrays.sort(files);
+        List<Test> tests = new ArrayList<Test>();
+        for (File file : files)
+            tests.add(new Test(file));
+
+        return tests;
+    }
+
+    private Result run(Test test, String engine) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        CFPL cfpl = CFPL.fromSource(test.source, test.file.getAbsoluteFile().getParentFile());
+        String transcript = null;
+        long bestCpu = Long.MAX_VALUE, bestAllocated = Long.MAX_VALUE;
+        // the first run is not measured; it loads the classes the program needs
+        for (int i = -1; i < Math.max(1, repeats); i++) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+            InputStream in = new EchoInputStream(test.stdin, out);
+            long allocated = threads.getThreadAllocatedBytes(threadId);
+            long cpu = threads.getCurrentThreadCpuTime();
+            cfpl.execute(in, out, limits, engine.equals("instrumented") ? new Probe() {
+            } : null);
+            if (i >= 0) {
+                bestCpu = Math.min(bestCpu, threads.getCurrentThreadCpuTime() - cpu);
+                bestAllocated = Math.min(bestAllocated, threads.getThreadAllocatedBytes(threadId) - allocated);
+            }
+            out.flush();
+            transcript = buffer.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+        }
+
+        return new Result(test, engine, transcript, bestCpu, bestAllocated);
+    }
+
+    int run(PrintStream report) throws Exception {
+        List<Test> tests = load();
+        if (accept)
+            for (int i = 0; i < tests.size(); i++)
+                if (tests.get(i).hasHeader)
+                    tests.set(i, accept(tests.get(i)));
+        Map<String, long[]> base = readBaseline();
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers),
+                r -> Interpreter.newThread(r, "cfpl-conformance"));
+        List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        try {
+            for (Test test : tests)
+                for (String engine : ENGINES)
+                    futures.add(pool.submit(() -> run(test, engine)));
+            int passed = 0, failed = 0, regressed = 0, unchecked = 0;
+            List<Result> results = new ArrayList<Result>();
+            for (Future<Result> future : futures) {
+                Result result = future.get();
+                results.add(result);
+                String status = "unchecked";
+                if (result.test.hasHeader)
+                    status = String.join("\n", result.test.expected).equals(result.transcript) ? "pass" : "fail";
+                long[] previous = base.get(key(result));
+                String regression = null;
+                if (previous != null && !updateBaseline) {
+                    if (regressed(result.cpuNanos / 1000, previous[0], MIN_CPU_NANOS / 1000))
+                        regression = "cpu";
+                    else if (regressed(result.allocatedBytes, previous[1], MIN_ALLOCATED_BYTES))
+                        regression = "allocation";
+                }
+                if (status.equals("pass"))
+                    passed++;
+                else if (status.equals("fail"))
+                    failed++;
+                else
+                    unchecked++;
+                if (regression != null)
+                    regressed++;
+                report.println(String.format(
+                        "{\"test\":%s,\"engine\":\"%s\",\"status\":\"%s\",\"cpuMicros\":%d,\"allocatedBytes\":%d,\"baselineCpuMicros\":%s,\"baselineAllocatedBytes\":%s,\"regression\":%s}",
+                        Batch.json(result.test.name()), result.engine, status, result.cpuNanos / 1000,
+                        result.allocatedBytes, previous == null ? "null" : previous[0],
+                        previous == null ? "null" : previous[1], Batch.json(regression)));
+                if (status.equals("fail"))
+                    System.err.print(diff(result));
+            }
+            report.println(String.format(
+                    "{\"summary\":true,\"tests\":%d,\"engines\":%d,\"passed\":%d,\"failed\":%d,\"unchecked\":%d,\"regressed\":%d}",
+                    tests.size(), ENGINES.length, passed, failed, unchecked, regressed));
+            report.flush();
+            if (updateBaseline)
+                writeBaseline(results);
+
+            return failed > 0 || regressed > 0 ? 1 : 0;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private boolean regressed(long value, long previous, long slack) {
+        return value - previous > slack && value * 100 > previous * (100 + tolerance);
+    }
+
+    private static String key(Result result) {
+        return result.test.name() + "\t" + result.engine;
+    }
+
+    private Map<String, long[]> readBaseline() throws IOException {
+        Map<String, long[]> base = new LinkedHashMap<String, long[]>();
+        File file = new File(baseline);
+        if (!file.isFile())
+            return base;
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (line.startsWith("#") || fields.length < 4)
+                continue;
+            base.put(fields[0] + "\t" + fields[1],
+                    new long[] { Long.parseLong(fields[2]), Long.parseLong(fields[3]) });
+        }
+
+        return base;
+    }
+
+    private void writeBaseline(List<Result> results) throws IOException {
+        File file = new File(baseline);
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+        try (PrintStream out = new PrintStream(file, StandardCharsets.UTF_8)) {
+            out.println("# test\tengine\tcpuMicros\tallocatedBytes");
+            for (Result result : results)
+                out.println(String.format("%s\t%s\t%d\t%d", result.test.name(), result.engine,
+                        result.cpuNanos / 1000, result.allocatedBytes));
+        }
+    }
+
+    // Rewrites the expected transcript of a test to what the interpreter
+    // prints now. Line numbers in error messages depend on the header length,
+    // so this repeats until the header stops changing.
+    private Test accept(Test test) throws IOException {
+        for (int pass = 0; pass < 3; pass++) {
+            String transcript = run(test, ENGINES[0]).transcript;
+            if (String.join("\n", test.expected).equals(transcript))
+                break;
+            byte[] original = Files.readAllBytes(test.file.toPath());
+            String text = new String(original, StandardCharsets.UTF_8);
+            String newline = text.contains("\r\n") ? "\r\n" : "\n";
+            StringBuilder source = new StringBuilder();
+            for (String line : test.stdin)
+                source.append("*> ").append(line).append(newline);
+            for (String line : transcript.split("\n", -1))
+                source.append("* ").append(line).append(newline);
+            // the rest of the file is kept byte for byte
+            int end = 0;
+            for (int i = 0; i < test.headerLines; i++)
+                end = text.indexOf('\n', end) + 1;
+            source.append(text.substring(end));
+            Files.writeString(test.file.toPath(), source.toString(), StandardCharsets.UTF_8);
+            test = new Test(test.file);
+        }
+
+        return test;
+    }
+
+    private static String diff(Result result) {
+        String[] expected = String.join("\n", result.test.expected).split("\n", -1);
+        String[] actual = result.transcript.split("\n", -1);
+        int line = 0;
+        while (line < expected.length && line < actual.length && expected[line].equals(actual[line]))
+            line++;
+
+        return String.format("%s [%s]: transcript differs at line %d\n  expected: %s\n  actual:   %s\n",
+                result.test.name(), result.engine, line + 1, line < expected.length ? expected[line] : "<end>",
+                line < actual.length ? actual[line] : "<end>");
+    }
+
+    // Serves stdin one line per read, writing each line to `echo` as the
+    // program consumes it, the way a terminal shows typed input.
+    private static class EchoInputStream extends InputStream {
+        private final byte[] input;
+        private final PrintStream echo;
+        private int position = 0;
+
+        EchoInputStream(List<String> lines, PrintStream echo) {
+            StringBuilder text = new StringBuilder();
+            for (String line : lines)
+                text.append(line).append('\n');
+            this.input = text.toString().getBytes(StandardCharsets.UTF_8);
+            this.echo = echo;
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= input.length)
+                return -1;
+            if (len == 0)
+                return 0;
+            int n = 0;
+            while (n < len && position < input.length) {
+                b[off + n++] = input[position];
+                if (input[position++] == '\n')
+                    break;
+            }
+            echo.write(b, off, n);
+
+            return n;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.PrintStream;
+
+// Statement and branch coverage for one program run.
+//
+// A line is covered once any statement on it has run; IF and WHILE lines also
+// count how often their condition came out TRUE and FALSE. The report follows
+// gcov: "-" for lines without statements and "#####" for lines never run.
+class Coverage implements Probe {
+    private final CFPL cfpl;
+    private final long[] hits;
+    private final boolean[] executable;
+    private final boolean[] conditional;
+    private final long[] taken;
+    private final long[] notTaken;
+
+    Coverage(CFPL cfpl) {
+        this.cfpl = cfpl;
+        int lineCount = 1;
+        for (int i = 0; i < cfpl.getSourceCode().length(); i++)
+            if (cfpl.getSourceCode().charAt(i) == '\n')
+                lineCount++;
+        hits = new long[lineCount];
+        executable = new boolean[lineCount];
+        conditional = new boolean[lineCount];
+        taken = new long[lineCount];
+        notTaken = new long[lineCount];
+    }
+
+    @Override
+    public void register(ParsingStatement stmt) {
+        if (!(stmt instanceof ParsingStatement.Block))
+            executable[stmt.token.line] = true;
+        if (stmt instanceof ParsingStatement.If || stmt instanceof ParsingStatement.While)
+            conditional[stmt.token.line] = true;
+    }
+
+    @Override
+    public void statementEnter(ParsingStatement stmt) {
+        hits[stmt.token.line]++;
+    }
+
+    @Override
+    public void conditionExit(ParsingStatement owner, Object value) {
+        if (Boolean.TRUE.equals(value))
+            taken[owner.token.line]++;
+        else if (Boolean.FALSE.equals(value))
+            notTaken[owner.token.line]++;
+    }
+
+    void report(PrintStream out) {
+        int lines = 0, covered = 0, branches = 0, branchesCovered = 0;
+        for (int line = 0; line < hits.length; line++) {
+            if (!executable[line])
+                continue;
+            lines++;
+            if (hits[line] > 0)
+                covered++;
+            if (conditional[line]) {
+                branches += 2;
+                branchesCovered += (taken[line] > 0 ? 1 : 0) + (notTaken[line] > 0 ? 1 : 0);
+            }
+        }
+        out.println(String.format("Coverage: %d of %d lines (%.1f%%), %d of %d branches (%.1f%%)", covered, lines,
+                percent(covered, lines), branchesCovered, branches, percent(branchesCovered, branches)));
+        for (int line = 0; line < hits.length - 1; line++) {
+            String count = !executable[line] ? "-" : hits[line] == 0 ? "#####" : Long.toString(hits[line]);
+            String branch = conditional[line]
+                    ? String.format("  [TRUE %d, FALSE %d]", taken[line], notTaken[line])
+                    : "";
+            out.println(String.format("%9s:%5d:%s%s", count, line + 1, cfpl.getCodeAtLine(line), branch));
+        }
+        out.flush();
+    }
+
+    private static double percent(int part, int whole) {
+        return whole == 0 ? 100 : part * 100.0 / whole;
+    }
+}
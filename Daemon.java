@@ -0,0 +1,161 @@
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Resident server that runs programs sent over a Unix domain socket.
+//
+// A request starts with a header line, either "P <program path>" or
+// "S <byte length>" followed by that many bytes of UTF-8 source. Anything the
+// client sends after that is the program's stdin, and everything written
+// back until the server closes its side is the program's stdout, diagnostics
+// included, exactly as `java CFPL <file>` would print it. Programs go through
+// CFPL.compileCached, so each distinct source is compiled once per server.
+// INCLUDE resolves relative names against the directory of a "P" program; an
+// "S" program has no directory, so it can only include absolute paths.
+class Daemon {
+    private static final int MAX_SOURCE_BYTES = 16 << 20;
+    private final Path socket;
+    private final Limits limits;
+
+    Daemon(String socket, Limits limits) {
+        this.socket = Path.of(socket);
+        this.limits = limits;
+    }
+
+    void serve() throws IOException {
+        Files.deleteIfExists(socket);
+        ExecutorService executor = Executors.newCachedThreadPool(r -> Interpreter.newThread(r, "cfpl-daemon"));
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            System.err.println(String.format("CFPL daemon listening on %s", socket));
+            while (true) {
+                SocketChannel channel = server.accept();
+                executor.execute(() -> handle(channel));
+            }
+        } finally {
+            executor.shutdownNow();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            DataInputStream in = new DataInputStream(input(channel));
+            PrintStream out = new PrintStream(output(channel), true, StandardCharsets.UTF_8);
+            String header = readLine(in);
+            String sourceCode;
+            File directory = null;
+            if (header.startsWith("P ")) {
+                try {
+                    sourceCode = CFPL.readSource(header.substring(2));
+                    directory = new File(header.substring(2)).getAbsoluteFile().getParentFile();
+                } catch (IOException e) {
+                    out.print("[Error] File not found.");
+                    return;
+                }
+            } else if (header.startsWith("S ") && sourceLength(header) >= 0) {
+                byte[] source = new byte[sourceLength(header)];
+                in.readFully(source);
+                sourceCode = new String(source, StandardCharsets.UTF_8);
+            } else {
+                out.print("[Error] Invalid request.");
+                return;
+            }
+            // a Usage makes the run measure its allocation for the metrics MBean
+            CFPL.compileCached(sourceCode, directory).execute(in, out, limits, null, new Usage());
+            out.flush();
+        } catch (IOException e) {
+            System.err.println(String.format("[Daemon] %s", e.getMessage()));
+        }
+    }
+
+    // The byte length of an "S" header, or -1 when it is not a number from 0
+    // to MAX_SOURCE_BYTES.
+    private static int sourceLength(String header) {
+        try {
+            int length = Integer.parseInt(header.substring(2).trim());
+            return length <= MAX_SOURCE_BYTES ? Math.max(-1, length) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n')
+            line.append((char) b);
+
+        return new String(line.toString().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+
+    // Drop-in client for `java CFPL <file>`: forwards stdin and copies the output.
+    static void client(String socket, String filePath) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            OutputStream request = output(channel);
+            request.write(String.format("P %s\n", Path.of(filePath).toAbsolutePath()).getBytes(StandardCharsets.UTF_8));
+            Thread input = new Thread(() -> {
+                try {
+                    System.in.transferTo(request);
+                    channel.shutdownOutput();
+                } catch (IOException e) {
+                    // the server finished before stdin did
+                }
+            });
+            input.setDaemon(true);
+            input.start();
+            InputStream response = input(channel);
+            OutputStream out = System.out;
+            response.transferTo(out);
+            out.flush();
+        }
+    }
+
+    // Streams over the channel that read and write independently of each other,
+    // unlike Channels.newInputStream/newOutputStream which share one lock.
+    private static InputStream input(SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0)
+                    return 0;
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+        };
+    }
+
+    private static OutputStream output(SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+        };
+    }
+}
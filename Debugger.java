@@ -0,0 +1,136 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Array;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+
+// Line-breakpoint debugger.
+//
+// Execution stops before the first statement on a breakpoint line, or before
+// the next statement when stepping, and reads commands until told to go on:
+//
+// c          continue to the next breakpoint
+// s          step to the next statement
+// p <name>   print a variable
+// v          print all variables
+//
+// Inside a SUB or FUNCTION its parameters and locals come first and hide the
+// globals of the same name.
+// b <line>   add a breakpoint
+// d <line>   delete a breakpoint
+// q          stop the program
+class Debugger implements Probe {
+    private static final int SHOWN_ELEMENTS = 16;
+    private final CFPL cfpl;
+    private final BufferedReader commands;
+    private final PrintStream out;
+    private final Set<Integer> breakpoints = new TreeSet<Integer>();
+    private Interpreter interpreter;
+    private boolean stepping;
+
+    // `lines` are 1-based; with stopAtStart the first statement stops too.
+    Debugger(CFPL cfpl, Set<Integer> lines, boolean stopAtStart, BufferedReader commands, PrintStream out) {
+        this.cfpl = cfpl;
+        this.commands = commands;
+        this.out = out;
+        this.stepping = stopAtStart;
+        for (int line : lines)
+            breakpoints.add(line - 1);
+    }
+
+    @Override
+    public void attach(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    @Override
+    public void statementEnter(ParsingStatement stmt) throws Exception {
+        if (stmt instanceof ParsingStatement.Block)
+            return;
+        if (!stepping && !breakpoints.contains(stmt.token.line))
+            return;
+        stepping = false;
+        out.println(String.format("[debug] %s at line %d: %s", breakpoints.contains(stmt.token.line)
+                ? "Breakpoint" : "Step", stmt.token.line + 1, cfpl.getCodeAtLine(stmt.token.line).trim()));
+        while (true) {
+            out.print("(cfpl) ");
+            out.flush();
+            String line = readCommand();
+            if (line == null || line.equals("c"))
+                return;
+            String[] words = line.split("\\s+", 2);
+            String argument = words.length > 1 ? words[1].trim() : "";
+            switch (words[0]) {
+                case "s":
+                    stepping = true;
+                    return;
+                case "p":
+                    Map<String, Object> values = visible();
+                    if (!values.containsKey(argument))
+                        out.println(String.format("Undefined variable '%s'.", argument));
+                    else
+                        out.println(String.format("%s = %s", argument, show(values.get(argument))));
+                    break;
+                case "v":
+                    for (Map.Entry<String, Object> entry : visible().entrySet())
+                        out.println(String.format("%s = %s", entry.getKey(), show(entry.getValue())));
+                    break;
+                case "b":
+                case "d":
+                    try {
+                        int target = Integer.parseInt(argument) - 1;
+                        if (words[0].equals("b"))
+                            breakpoints.add(target);
+                        else
+                            breakpoints.remove(target);
+                    } catch (NumberFormatException e) {
+                        out.println("Expected a line number.");
+                    }
+                    break;
+                case "q":
+                    throw cfpl.newError(Diagnostic.Phase.INTERPRETER, "debugger-stop", stmt.token,
+                            "Stopped by the debugger.");
+                default:
+                    out.println("Commands: c, s, p <name>, v, b <line>, d <line>, q");
+            }
+        }
+    }
+
+    private Map<String, Object> visible() {
+        Map<String, Object> values = interpreter.locals();
+        for (Map.Entry<String, Object> global : interpreter.globals().values().entrySet())
+            values.putIfAbsent(global.getKey(), global.getValue());
+
+        return values;
+    }
+
+    private String readCommand() {
+        try {
+            String line = commands.readLine();
+            return line == null ? null : line.trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static String show(Object value) {
+        if (value instanceof Boolean)
+            return value.toString().toUpperCase();
+        if (value instanceof Character)
+            return "'" + value + "'";
+        if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            StringJoiner elements = new StringJoiner(", ", "[", "]");
+            for (int i = 0; i < Math.min(length, SHOWN_ELEMENTS); i++)
+                elements.add(show(Array.get(value, i)));
+            if (length > SHOWN_ELEMENTS)
+                elements.add(String.format("... %d more", length - SHOWN_ELEMENTS));
+            return elements.toString();
+        }
+
+        return String.valueOf(value);
+    }
+}
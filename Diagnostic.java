@@ -0,0 +1,77 @@
+// An error in a CFPL program, raised by the lexer, parser or interpreter.
+//
+// Carries the phase, a stable code, the position and, when there is one, the
+// offending token. The message with its source excerpt is only formatted when
+// getMessage() is first called, and no stack trace is captured, so building
+// and throwing one costs about as much as allocating it. Diagnostics always
+// end the phase that raised them; they are never caught to steer parsing or
+// evaluation.
+class Diagnostic extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    enum Phase {
+        LEXER("Lexer-Error"),
+        PARSER("Parser-Error"),
+        INTERPRETER("Interpreter-Error"),
+        LIMIT("Limit-Error");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    final Phase phase;
+    final String code;
+    final Token token;
+    // 0-based, like Token.line.
+    final int line;
+    final int column;
+    private final CFPL cfpl;
+    private final String atFault;
+    private final String format;
+    private final Object[] arguments;
+    private String message;
+
+    Diagnostic(CFPL cfpl, Phase phase, String code, Token token, String format, Object... arguments) {
+        this(cfpl, phase, code, token, token.line, token.column, null, format, arguments);
+    }
+
+    Diagnostic(CFPL cfpl, Phase phase, String code, int line, int column, String atFault, String format,
+            Object... arguments) {
+        this(cfpl, phase, code, null, line, column, atFault, format, arguments);
+    }
+
+    private Diagnostic(CFPL cfpl, Phase phase, String code, Token token, int line, int column, String atFault,
+            String format, Object[] arguments) {
+        super(null, null, false, false);
+        this.cfpl = cfpl;
+        this.phase = phase;
+        this.code = code;
+        this.token = token;
+        this.line = line;
+        this.column = column;
+        this.atFault = atFault;
+        this.format = format;
+        this.arguments = arguments;
+    }
+
+    // The first line of the message, without position and source excerpt.
+    String summary() {
+        return arguments.length == 0 ? format : String.format(format, arguments);
+    }
+
+    @Override
+    public String getMessage() {
+        if (message == null) {
+            String fault = token != null ? String.format("%s '%s'", token.type, token.lexeme) : atFault;
+            CFPL source = token != null && token.source != null ? token.source : cfpl;
+            String file = source.name() != null ? String.format(" in '%s'", source.name()) : "";
+            message = String.format("%s\n[line: %d, column: %d]%s on %s.\n%s\n%s", summary(), line + 1, column, file,
+                    fault, source.getCodeAtLine(line), " ".repeat(column - 1) + "^");
+        }
+
+        return message;
+    }
+}
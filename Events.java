@@ -0,0 +1,123 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Flight Recorder events for the lex, parse and execute phases of a run, plus
+// sampled per-statement events. Event classes are only loaded once Flight
+// Recorder is running, since loading them costs far more than a short run.
+final class Events {
+    private Events() {
+    }
+
+    static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    @Name("cfpl.Lex")
+    @Label("CFPL Lex")
+    @Category("CFPL")
+    @StackTrace(false)
+    static class Lex extends Event {
+        @Label("Source Size")
+        @DataAmount
+        long sourceSize;
+
+        @Label("Tokens")
+        long tokens;
+
+        @Label("Error Type")
+        String errorType;
+    }
+
+    @Name("cfpl.Parse")
+    @Label("CFPL Parse")
+    @Category("CFPL")
+    @StackTrace(false)
+    static class Parse extends Event {
+        @Label("Tokens")
+        long tokens;
+
+        @Label("Statements")
+        long statements;
+
+        @Label("Error Type")
+        String errorType;
+    }
+
+    @Name("cfpl.Execute")
+    @Label("CFPL Execute")
+    @Category("CFPL")
+    @StackTrace(false)
+    static class Execute extends Event {
+        @Label("Statements Executed")
+        long statements;
+
+        @Label("Loop Iterations")
+        long loopIterations;
+
+        @Label("Output")
+        @DataAmount
+        long outputBytes;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocatedBytes;
+
+        @Label("Peak String Length")
+        long peakStringLength;
+
+        @Label("Error Type")
+        String errorType;
+    }
+
+    @Name("cfpl.Statement")
+    @Label("CFPL Statement")
+    @Description("One in every SAMPLE_EVERY executed statements")
+    @Category("CFPL")
+    @StackTrace(false)
+    static class Statement extends Event {
+        static final int SAMPLE_EVERY = 1024;
+
+        @Label("Line")
+        int line;
+
+        @Label("Column")
+        int column;
+
+        @Label("Kind")
+        String kind;
+    }
+
+    // Emits a Statement event for every SAMPLE_EVERY-th statement entered.
+    static class StatementSampler implements Probe {
+        private int countdown = Statement.SAMPLE_EVERY;
+        private ParsingStatement sampledStatement;
+        private Statement sampled;
+
+        @Override
+        public void statementEnter(ParsingStatement stmt) {
+            if (--countdown <= 0 && sampled == null) {
+                countdown = Statement.SAMPLE_EVERY;
+                sampled = new Statement();
+                sampled.line = stmt.token.line + 1;
+                sampled.column = stmt.token.column;
+                sampled.kind = stmt.getClass().getSimpleName();
+                sampled.begin();
+                sampledStatement = stmt;
+            }
+        }
+
+        @Override
+        public void statementExit(ParsingStatement stmt) {
+            if (sampled != null && stmt == sampledStatement) {
+                sampled.commit();
+                sampled = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Record and replay of the values a program reads with INPUT.
+//
+// Recording keeps every value INPUT stored, in order, and write() saves them
+// one per line in the form INPUT accepts, so a log is also a plain stdin file:
+// it can be piped into a run or used as the "name.in" of a batch case.
+// replay() serves a log straight from a read-only mapping of the file, so
+// replayed runs do not block on a terminal or copy the input onto the heap.
+class InputLog implements Probe {
+    private final StringBuilder values = new StringBuilder();
+    private int count = 0;
+
+    @Override
+    public void input(Token name, Object value) {
+        if (value instanceof Boolean)
+            values.append((Boolean) value ? "TRUE" : "FALSE");
+        else
+            values.append(value);
+        values.append('\n');
+        count++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    void write(String path) throws IOException {
+        try (PrintStream out = new PrintStream(path, StandardCharsets.UTF_8)) {
+            out.print(values);
+        }
+    }
+
+    static InputStream replay(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            return new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static class MappedInputStream extends InputStream {
+        private final MappedByteBuffer buffer;
+
+        MappedInputStream(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,400 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Builds an instrumented copy of a program for a Probe.
+//
+// Every statement of the copy is wrapped in a node that reports entry and exit,
+// IF and WHILE conditions are wrapped to report their value, every loop body
+// reports its back-edge, and assignments and INPUT report the values they
+// write. Wrappers forward to the copied node, so the Interpreter runs them like
+// any other statement and never checks for probes itself; the original tree is
+// left untouched for uninstrumented runs.
+class Instrumenter implements ParsingStatement.Visitor<ParsingStatement>,
+        ParsingExpression.Visitor<ParsingExpression> {
+    private final Probe probe;
+    private final boolean expressions;
+    // The copy of every SUB and FUNCTION, which calls in the copy refer to.
+    private final Map<ParsingStatement.Function, ParsingStatement.Function> functions =
+            new HashMap<ParsingStatement.Function, ParsingStatement.Function>();
+
+    private Instrumenter(Probe probe) {
+        this.probe = probe;
+        this.expressions = probe.observesExpressions();
+    }
+
+    static List<ParsingStatement> instrument(List<ParsingStatement> statements, Probe probe) throws Exception {
+        return new Instrumenter(probe).statements(statements);
+    }
+
+    private List<ParsingStatement> statements(List<ParsingStatement> statements) throws Exception {
+        List<ParsingStatement> copy = new ArrayList<ParsingStatement>(statements.size());
+        for (ParsingStatement statement : statements)
+            copy.add(statement(statement));
+
+        return copy;
+    }
+
+    // Code from an included module is run as it is; its lines are not the
+    // program's.
+    private ParsingStatement statement(ParsingStatement stmt) throws Exception {
+        if (stmt == null || stmt.token.source != null)
+            return stmt;
+        probe.register(stmt);
+
+        return new Probed(stmt.visit(this), stmt, probe);
+    }
+
+    private ParsingExpression expression(ParsingExpression expr) throws Exception {
+        if (expr == null)
+            return null;
+        ParsingExpression copy = expr.visit(this);
+
+        return expressions ? new Observed(copy, expr, probe) : copy;
+    }
+
+    private ParsingExpression[] expressions(ParsingExpression[] exprs) throws Exception {
+        if (exprs == null)
+            return null;
+        ParsingExpression[] copy = new ParsingExpression[exprs.length];
+        for (int i = 0; i < exprs.length; i++)
+            copy[i] = expression(exprs[i]);
+
+        return copy;
+    }
+
+    // The copy is registered before its body is copied, for recursive calls.
+    private ParsingStatement.Function copy(ParsingStatement.Function function) throws Exception {
+        if (function.token.source != null)
+            return function;
+        ParsingStatement.Function copy = functions.get(function);
+        if (copy == null) {
+            copy = new ParsingStatement.Function(function.name, function.parameters, function.names,
+                    function.types, function.type);
+            functions.put(function, copy);
+            copy.body = statement(function.body);
+        }
+
+        return copy;
+    }
+
+    @Override
+    public ParsingStatement block(ParsingStatement.Block stmt) throws Exception {
+        return new ParsingStatement.Block(statements(stmt.statements), stmt.token);
+    }
+
+    @Override
+    public ParsingStatement expression(ParsingStatement.Expression stmt) throws Exception {
+        return new ParsingStatement.Expression(expression(stmt.expression), stmt.token);
+    }
+
+    @Override
+    public ParsingStatement ifS(ParsingStatement.If stmt) throws Exception {
+        return new ParsingStatement.If(new Condition(expression(stmt.condition), stmt, probe),
+                statement(stmt.thenBranch), statement(stmt.elseBranch), stmt.token);
+    }
+
+    @Override
+    public ParsingStatement print(ParsingStatement.Print stmt) throws Exception {
+        return new ParsingStatement.Print(expression(stmt.expression), stmt.token);
+    }
+
+    @Override
+    public ParsingStatement input(ParsingStatement.Input stmt) {
+        return new InputWrites(stmt, probe);
+    }
+
+    @Override
+    public ParsingStatement var(ParsingStatement.Var stmt) throws Exception {
+        return new ParsingStatement.Var(stmt.name, expression(stmt.initializer));
+    }
+
+    // The copy has no unchecked body, so instrumented runs check every array index.
+    @Override
+    public ParsingStatement whileS(ParsingStatement.While stmt) throws Exception {
+        return new ParsingStatement.While(new Condition(expression(stmt.condition), stmt, probe),
+                new BackEdge(statement(stmt.body), stmt, probe), stmt.token);
+    }
+
+    // The copy stores the loop variable on every iteration and reports it as
+    // written, so probes always see its current value.
+    @Override
+    public ParsingStatement forS(ParsingStatement.For stmt) throws Exception {
+        return new ParsingStatement.For(stmt.variable, expression(stmt.start), expression(stmt.end),
+                expression(stmt.step), new BackEdge(new LoopWrite(statement(stmt.body), stmt.variable, probe), stmt,
+                        probe),
+                true, stmt.calls, stmt.token);
+    }
+
+    // The probes are not thread-safe, so the copy runs its chunks one by one.
+    @Override
+    public ParsingStatement parallelFor(ParsingStatement.ParallelFor stmt) throws Exception {
+        return new ParsingStatement.ParallelFor((ParsingStatement.For) forS(stmt.loop), stmt.targets, stmt.reductions,
+                false, stmt.token);
+    }
+
+    // Probes count every iteration, so the copy is interpreted.
+    @Override
+    public ParsingStatement vectorized(ParsingStatement.Vectorized stmt) throws Exception {
+        return stmt.loop.visit(this);
+    }
+
+    @Override
+    public ParsingStatement function(ParsingStatement.Function stmt) throws Exception {
+        return copy(stmt);
+    }
+
+    @Override
+    public ParsingStatement returnS(ParsingStatement.Return stmt) throws Exception {
+        return new ParsingStatement.Return(expression(stmt.value), expressions(stmt.tailArguments), stmt.function,
+                stmt.token);
+    }
+
+    @Override
+    public ParsingStatement caseS(ParsingStatement.Case stmt) throws Exception {
+        ParsingStatement[] branches = new ParsingStatement[stmt.branches.length];
+        for (int i = 0; i < branches.length; i++)
+            branches[i] = statement(stmt.branches[i]);
+
+        return new ParsingStatement.Case(new Condition(expression(stmt.selector), stmt, probe), stmt.type,
+                stmt.labels, branches, statement(stmt.elseBranch), stmt.token);
+    }
+
+    @Override
+    public ParsingStatement jump(ParsingStatement.Jump stmt) {
+        return stmt;
+    }
+
+    @Override
+    public ParsingExpression assign(ParsingExpression.Assign expr) throws Exception {
+        return new Assignment(
+                new ParsingExpression.Assign(expr.name, expression(expr.value), expr.type, expr.slot), expr.name,
+                probe);
+    }
+
+    @Override
+    public ParsingExpression builtin(ParsingExpression.Builtin expr) throws Exception {
+        return new ParsingExpression.Builtin(expr.name, expr.intrinsic, expressions(expr.arguments));
+    }
+
+    @Override
+    public ParsingExpression call(ParsingExpression.Call expr) throws Exception {
+        return new ParsingExpression.Call(expr.name, expressions(expr.arguments), copy(expr.function));
+    }
+
+    @Override
+    public ParsingExpression allocate(ParsingExpression.Allocate expr) throws Exception {
+        return new ParsingExpression.Allocate(expr.type, expression(expr.length), expr.bracket);
+    }
+
+    @Override
+    public ParsingExpression index(ParsingExpression.Index expr) throws Exception {
+        return new ParsingExpression.Index(expr.name, expression(expr.index), expr.bracket, true);
+    }
+
+    @Override
+    public ParsingExpression setIndex(ParsingExpression.SetIndex expr) throws Exception {
+        return new Assignment(new ParsingExpression.SetIndex(expr.name, expression(expr.index),
+                expression(expr.value), expr.type, expr.bracket, true), expr.name, probe);
+    }
+
+    @Override
+    public ParsingExpression binary(ParsingExpression.Binary expr) throws Exception {
+        return new ParsingExpression.Binary(expression(expr.left), expr.operator, expression(expr.right));
+    }
+
+    @Override
+    public ParsingExpression grouping(ParsingExpression.Grouping expr) throws Exception {
+        return new ParsingExpression.Grouping(expression(expr.expression));
+    }
+
+    @Override
+    public ParsingExpression literal(ParsingExpression.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public ParsingExpression logical(ParsingExpression.Logical expr) throws Exception {
+        return new ParsingExpression.Logical(expression(expr.left), expr.operator, expression(expr.right));
+    }
+
+    @Override
+    public ParsingExpression unary(ParsingExpression.Unary expr) throws Exception {
+        return new ParsingExpression.Unary(expr.operator, expression(expr.right));
+    }
+
+    @Override
+    public ParsingExpression variable(ParsingExpression.Variable expr) {
+        return expr;
+    }
+
+    // Reports entry and exit of the original statement around its copy.
+    private static class Probed extends ParsingStatement {
+        private final ParsingStatement copy;
+        private final ParsingStatement original;
+        private final Probe probe;
+
+        Probed(ParsingStatement copy, ParsingStatement original, Probe probe) {
+            super(original.token);
+            this.copy = copy;
+            this.original = original;
+            this.probe = probe;
+        }
+
+        @Override
+        <R> R visit(Visitor<R> visitor) throws Exception {
+            probe.statementEnter(original);
+            try {
+                return copy.visit(visitor);
+            } finally {
+                probe.statementExit(original);
+            }
+        }
+    }
+
+    private static class BackEdge extends ParsingStatement {
+        private final ParsingStatement body;
+        private final ParsingStatement loop;
+        private final Probe probe;
+
+        BackEdge(ParsingStatement body, ParsingStatement loop, Probe probe) {
+            super(body.token);
+            this.body = body;
+            this.loop = loop;
+            this.probe = probe;
+        }
+
+        @Override
+        <R> R visit(Visitor<R> visitor) throws Exception {
+            R result = body.visit(visitor);
+            probe.backEdge(loop);
+
+            return result;
+        }
+    }
+
+    private static class InputWrites extends ParsingStatement {
+        private final ParsingStatement.Input[] reads;
+        private final Probe probe;
+
+        // One single-variable INPUT per variable, so each value is reported as
+        // soon as it is read, even when a later one fails.
+        InputWrites(ParsingStatement.Input input, Probe probe) {
+            super(input.token);
+            this.reads = new ParsingStatement.Input[input.variables.length];
+            for (int i = 0; i < reads.length; i++)
+                reads[i] = new ParsingStatement.Input(new ParsingExpression.Variable[] { input.variables[i] },
+                        input.token);
+            this.probe = probe;
+        }
+
+        @Override
+        <R> R visit(Visitor<R> visitor) throws Exception {
+            R result = null;
+            for (ParsingStatement.Input read : reads) {
+                result = read.visit(visitor);
+                // the Interpreter is also the expression visitor, so it can read back what was stored
+                if (visitor instanceof ParsingExpression.Visitor) {
+                    ParsingExpression.Variable v = read.variables[0];
+                    Object value = v.visit((ParsingExpression.Visitor<?>) visitor);
+                    probe.assign(v.name, value);
+                    probe.input(v.name, value);
+                }
+            }
+
+            return result;
+        }
+    }
+
+    // Reports the FOR loop variable as written before each run of the body.
+    private static class LoopWrite extends ParsingStatement {
+        private final ParsingStatement body;
+        private final ParsingExpression.Variable variable;
+        private final Probe probe;
+
+        LoopWrite(ParsingStatement body, ParsingExpression.Variable variable, Probe probe) {
+            super(body.token);
+            this.body = body;
+            this.variable = variable;
+            this.probe = probe;
+        }
+
+        @Override
+        <R> R visit(Visitor<R> visitor) throws Exception {
+            if (visitor instanceof ParsingExpression.Visitor)
+                probe.assign(variable.name, variable.visit((ParsingExpression.Visitor<?>) visitor));
+
+            return body.visit(visitor);
+        }
+    }
+
+    // Reports the value written by an assignment to a variable or an array
+    // element, under the name of the variable or array.
+    private static class Assignment extends ParsingExpression {
+        private final ParsingExpression write;
+        private final Token name;
+        private final Probe probe;
+
+        Assignment(ParsingExpression write, Token name, Probe probe) {
+            this.write = write;
+            this.name = name;
+            this.probe = probe;
+        }
+
+        @Override
+        <R> R visit(Visitor<R> visitor) throws Exception {
+            R value = write.visit(visitor);
+            probe.assign(name, value);
+
+            return value;
+        }
+    }
+
+    // Reports the value of an IF or WHILE condition, or of a CASE selector.
+    private static class Condition extends ParsingExpression {
+        private final ParsingExpression condition;
+        private final ParsingStatement owner;
+        private final Probe probe;
+
+        Condition(ParsingExpression condition, ParsingStatement owner, Probe probe) {
+            this.condition = condition;
+            this.owner = owner;
+            this.probe = probe;
+        }
+
+        @Override
+        <R> R visit(Visitor<R> visitor) throws Exception {
+            probe.conditionEnter(owner);
+            R value = null;
+            try {
+                value = condition.visit(visitor);
+            } finally {
+                probe.conditionExit(owner, value);
+            }
+
+            return value;
+        }
+    }
+
+    // Reports the value of any other expression, for probes that ask for it.
+    private static class Observed extends ParsingExpression {
+        private final ParsingExpression copy;
+        private final ParsingExpression original;
+        private final Probe probe;
+
+        Observed(ParsingExpression copy, ParsingExpression original, Probe probe) {
+            this.copy = copy;
+            this.original = original;
+            this.probe = probe;
+        }
+
+        @Override
+        <R> R visit(Visitor<R> visitor) throws Exception {
+            R value = copy.visit(visitor);
+            probe.expression(original, value);
+
+            return value;
+        }
+    }
+}
@@ -1,13 +1,102 @@
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 class Interpreter implements ParsingExpression.Visitor<Object>,
         ParsingStatement.Visitor<Void> {
+    private static final long CHECK_INTERVAL = 1024;
+    private static final int INITIAL_STACK_SLOTS = 256;
+    private static final int MAX_STACK_SLOTS = 1 << 20;
+    // Every CFPL call nests about ten Java frames, so programs run on threads
+    // whose Java stack is large enough for MAX_CALL_DEPTH calls. The stack is
+    // only reserved up front, not committed.
+    static final long THREAD_STACK_BYTES = 512L << 20;
+    private static final int MAX_CALL_DEPTH = 100_000;
+    private static final ThreadLocal<Boolean> largeStack = ThreadLocal.withInitial(() -> false);
+    // A PARALLEL FOR splits its range into at most this many chunks, and
+    // hands them to the common ForkJoinPool from this many iterations on,
+    // unless the pool has a single worker.
+    private static final int MAX_CHUNKS = 64;
+    private static final long PARALLEL_ITERATIONS = 4096;
+    // What the last statement did to the flow of control.
+    private static final int NORMAL = 0, RETURN = 1, TAIL_CALL = 2, BREAK = 3, CONTINUE = 4;
     private CFPL cfpl;
-    private Storage global = new Storage();
+    private Storage global;
+    private final InputStream in;
+    private final PrintStream out;
+    private Scanner scanner;
+    private boolean pendingLine = false;
+    private final Limits limits;
+    private Scheduler.Task task = Scheduler.currentTask();
+    private long statementLimit = Long.MAX_VALUE;
+    private long loopCheckpoint = Long.MAX_VALUE;
+    private long deadline = 0;
+    private long allocationBase = -1;
+    // Bytes the run allocated on threads other than the one it is on now.
+    private long allocatedElsewhere = 0;
+    boolean measureAllocation = false;
+    long statementsExecuted = 0;
+    long loopIterations = 0;
+    long outputBytes = 0;
+    // Bytes of the text INPUT consumed, with line ends but not the spaces
+    // skipped between numbers; what the scanner buffers ahead is not counted.
+    long inputBytes = 0;
+    long boxedValues = 0;
+    // Values outside the Integer cache that FOR loop variables and array
+    // kernels kept unboxed, where storing them in a variable would have boxed.
+    long unboxedValues = 0;
+    long peakStringLength = 0;
+    // Call frames: the slots of the running SUB or FUNCTION start at `frame`,
+    // and `top` is the first free slot. Values are stored unboxed, INT, BOOL
+    // and CHAR as their integer value and FLOAT as its bits. The stack only
+    // grows, by doubling, so calls do not allocate once it is deep enough.
+    private long[] stack;
+    private int frame = 0;
+    // The SUB or FUNCTION whose frame that is, or null at the top level.
+    private ParsingStatement.Function routine;
+    private int top = 0;
+    private int depth = 0;
+    private int status = NORMAL;
+    private Object returnValue;
+    // What a chunk of a PARALLEL FOR threw, the thread it ran on and what it
+    // allocated there; see runChunk.
+    private Throwable failure;
+    private Thread thread;
+    private long chunkAllocated = 0;
 
     public Interpreter(CFPL cfpl) {
+        this(cfpl, System.in, System.out, Limits.NONE);
+    }
+
+    public Interpreter(CFPL cfpl, InputStream in, PrintStream out, Limits limits) {
         this.cfpl = cfpl;
+        this.global = new Storage(cfpl);
+        this.in = in;
+        this.out = out;
+        this.limits = limits;
+    }
+
+    Storage globals() {
+        return global;
+    }
+
+    // The parameters and locals of the running SUB or FUNCTION by name, in
+    // slot order; empty at the top level.
+    Map<String, Object> locals() {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        if (routine != null)
+            for (int i = 0; i < routine.names.length; i++)
+                values.put(routine.names[i], value(stack[frame + i], routine.types[i]));
+
+        return values;
     }
 
     @Override
@@ -18,16 +107,12 @@ class Interpreter implements ParsingExpression.Visitor<Object>,
     @Override
     public Object logical(ParsingExpression.Logical expr) throws Exception {
         Object left = evaluate(expr.left);
-        try {
-            if (expr.operator.type == TokenType.OR) {
-                if (toBoolean(left))
-                    return left;
-            } else {
-                if (!toBoolean(left))
-                    return left;
-            }
-        } catch (Exception e) {
-            throw cfpl.newError(expr.operator, e.getMessage());
+        if (expr.operator.type == TokenType.OR) {
+            if (toBoolean(left, expr.operator))
+                return left;
+        } else {
+            if (!toBoolean(left, expr.operator))
+                return left;
         }
 
         return evaluate(expr.right);
@@ -38,11 +123,7 @@ class Interpreter implements ParsingExpression.Visitor<Object>,
         Object right = evaluate(expr.right);
         switch (expr.operator.type) {
             case NOT:
-                try {
-                    return !toBoolean(right);
-                } catch (Exception e) {
-                    throw cfpl.newError(expr.operator, e.getMessage());
-                }
+                return !toBoolean(right, expr.operator);
             case ADDITION:
                 checkNumberOperand(expr.operator, right);
                 if (right instanceof Double)
@@ -58,24 +139,81 @@ class Interpreter implements ParsingExpression.Visitor<Object>,
                     return -(int) right;
                 break;
             default:
-                throw cfpl.newError(expr.operator, "Invalid unary operator.");
+                throw error(expr.operator, "invalid-operator", "Invalid unary operator.");
         }
 
         return null;
     }
 
-    private boolean toBoolean(Object object) throws Exception {
+    private boolean toBoolean(Object object, Token token) throws Diagnostic {
         if (object instanceof Boolean)
             return (boolean) object;
 
-        throw new Exception("Operand must be a boolean.");
+        throw error(token, "boolean-expected", "Operand must be a boolean.");
+    }
+
+    private Diagnostic error(Token token, String code, String format, Object... arguments) {
+        return cfpl.newError(Diagnostic.Phase.INTERPRETER, code, token, format, arguments);
     }
 
     @Override
     public Object variable(ParsingExpression.Variable expr) throws Exception {
+        if (expr.slot >= 0)
+            return value(stack[frame + expr.slot], expr.type);
+
         return global.get(expr.name);
     }
 
+    private void store(Token name, int slot, TokenType type, Object value) throws Exception {
+        if (slot >= 0)
+            stack[frame + slot] = word(value, type, name);
+        else
+            global.assign(name, value);
+    }
+
+    private long word(Object value, TokenType type, Token token) throws Diagnostic {
+        switch (type) {
+            case INT:
+                if (value instanceof Integer)
+                    return (int) value;
+                break;
+            case FLOAT:
+                if (value instanceof Double)
+                    return Double.doubleToRawLongBits((double) value);
+                if (value instanceof Integer)
+                    return Double.doubleToRawLongBits((int) value);
+                break;
+            case BOOL:
+                if (value instanceof Boolean)
+                    return (boolean) value ? 1 : 0;
+                break;
+            case CHAR:
+                if (value instanceof Character)
+                    return (char) value;
+                break;
+            default:
+                break;
+        }
+
+        throw error(token, "type-mismatch", "Expected expression value as '%s'.", type);
+    }
+
+    private Object value(long word, TokenType type) {
+        switch (type) {
+            case INT:
+                if (word < -128 || word > 127)
+                    boxedValues++;
+                return (int) word;
+            case FLOAT:
+                boxedValues++;
+                return Double.longBitsToDouble(word);
+            case BOOL:
+                return word != 0;
+            default:
+                return (char) word;
+        }
+    }
+
     private boolean isEqual(Object a, Object b) {
         if (a == null && b == null)
             return true;
@@ -95,12 +233,17 @@ class Interpreter implements ParsingExpression.Visitor<Object>,
     }
 
     private void execute(ParsingStatement stmt) throws Exception {
+        if (++statementsExecuted > statementLimit)
+            throw limitExceeded("statements", limits.maxStatements, stmt.token, "Statement limit of %d exceeded.");
         stmt.visit(this);
     }
 
     void executeBlock(List<ParsingStatement> statements) throws Exception {
-        for (ParsingStatement statement : statements)
+        for (ParsingStatement statement : statements) {
             execute(statement);
+            if (status != NORMAL)
+                return;
+        }
     }
 
     @Override
@@ -119,15 +262,10 @@ class Interpreter implements ParsingExpression.Visitor<Object>,
 
     @Override
     public Void ifS(ParsingStatement.If stmt) throws Exception {
-        Object condition = evaluate(stmt.condition);
-        try {
-            if (toBoolean(condition))
-                execute(stmt.thenBranch);
-            else if (stmt.elseBranch != null)
-                execute(stmt.elseBranch);
-        } catch (Exception e) {
-            throw cfpl.newError(stmt.ifToken, e.getMessage());
-        }
+        if (toBoolean(evaluate(stmt.condition), stmt.token))
+            execute(stmt.thenBranch);
+        else if (stmt.elseBranch != null)
+            execute(stmt.elseBranch);
 
         return null;
     }
@@ -135,47 +273,77 @@ class Interpreter implements ParsingExpression.Visitor<Object>,
     @Override
     public Void print(ParsingStatement.Print stmt) throws Exception {
         Object value = evaluate(stmt.expression);
-        System.out.print(stringify(value));
+        String text = stringify(value);
+        outputBytes += utf8Length(text);
+        if (limits.maxOutputBytes > 0 && outputBytes > limits.maxOutputBytes)
+            throw limitExceeded("output", limits.maxOutputBytes, stmt.token, "Output limit of %d bytes exceeded.");
+        out.print(text);
 
         return null;
     }
 
     @Override
     public Void input(ParsingStatement.Input stmt) throws Exception {
-        Scanner scanner = new Scanner(System.in);
-        int x = 0;
+        if (scanner == null)
+            scanner = new Scanner(in);
         for (ParsingExpression.Variable v : stmt.variables) {
-            Object value = global.get(v.name);
-            try {
-                if ("java.lang.Character".equals(value.getClass().getName())) {
-                    if (x > 0)
-                        scanner.nextLine();
-                    global.assign(v.name, (char) scanner.nextLine().charAt(0));
-                } else if ("java.lang.Double".equals(value.getClass().getName()))
-                    global.assign(v.name, (double) scanner.nextDouble());
-                else if ("java.lang.Integer".equals(value.getClass().getName()))
-                    global.assign(v.name, (int) scanner.nextInt());
-                else if ("java.lang.Boolean".equals(value.getClass().getName())) {
-                    if (x > 0)
-                        scanner.nextLine();
-                    String input = scanner.nextLine();
-                    boolean belongs = input.equals("TRUE") || input.equals("FALSE");
-                    if (!belongs)
-                        throw new Exception();
-                    global.assign(v.name, belongs && input.equals("TRUE") ? true : false);
-                } else
-                    throw new Exception();
-            } catch (Exception e) {
-                scanner.close();
-                throw cfpl.newError(v.name, "Unsupported input data type.");
+            Object value = read(variable(v));
+            if (value == null)
+                throw error(v.name, "invalid-input", "Unsupported input data type.");
+            store(v.name, v.slot, v.type, value);
+        }
+
+        return null;
+    }
+
+    // Reads a value of the same type as `current`, or null when the input
+    // holds none.
+    private Object read(Object current) {
+        if (current == null)
+            return null;
+        try {
+            if ("java.lang.Character".equals(current.getClass().getName())) {
+                skipPendingLine();
+                String line = scanner.nextLine();
+                consumed();
+                return (char) line.charAt(0);
+            } else if ("java.lang.Double".equals(current.getClass().getName())) {
+                double value = scanner.nextDouble();
+                consumed();
+                pendingLine = true;
+                return value;
+            } else if ("java.lang.Integer".equals(current.getClass().getName())) {
+                int value = scanner.nextInt();
+                consumed();
+                pendingLine = true;
+                return value;
+            } else if ("java.lang.Boolean".equals(current.getClass().getName())) {
+                skipPendingLine();
+                String input = scanner.nextLine();
+                consumed();
+                if (input.equals("TRUE") || input.equals("FALSE"))
+                    return input.equals("TRUE");
             }
-            x++;
+        } catch (NoSuchElementException | IndexOutOfBoundsException e) {
+            // no more input, or not a value of this type
         }
-        scanner.close();
 
         return null;
     }
 
+    private void skipPendingLine() {
+        if (pendingLine && scanner.hasNextLine()) {
+            scanner.nextLine();
+            consumed();
+        }
+        pendingLine = false;
+    }
+
+    // Counts the text the last successful scanner read took.
+    private void consumed() {
+        inputBytes += utf8Length(scanner.match().group());
+    }
+
     @Override
     public Void var(ParsingStatement.Var stmt) throws Exception {
         Object value = null;
@@ -188,12 +356,322 @@ class Interpreter implements ParsingExpression.Visitor<Object>,
 
     @Override
     public Void whileS(ParsingStatement.While stmt) throws Exception {
-        while (toBoolean(evaluate(stmt.condition)))
-            execute(stmt.body);
+        ParsingStatement body = stmt.guard != null && stmt.guard.holds(global) ? stmt.uncheckedBody : stmt.body;
+        while (toBoolean(evaluate(stmt.condition), stmt.token)) {
+            execute(body);
+            if (status != NORMAL && leavesLoop())
+                break;
+            if (++loopIterations >= loopCheckpoint)
+                checkLoopLimits(stmt);
+        }
+
+        return null;
+    }
+
+    // The loop variable lives in a long while the loop runs, so stepping past
+    // `end` cannot overflow, and is only stored when the body reads it.
+    @Override
+    public Void forS(ParsingStatement.For stmt) throws Exception {
+        int start = loopBound(evaluate(stmt.start), stmt.token);
+        int end = loopBound(evaluate(stmt.end), stmt.token);
+        int step = stmt.step == null ? 1 : loopBound(evaluate(stmt.step), stmt.token);
+        if (step == 0)
+            throw error(stmt.token, "zero-step", "FOR step cannot be 0.");
+        loop(stmt, start, end, step);
 
         return null;
     }
 
+    private void loop(ParsingStatement.For stmt, int start, int end, int step) throws Exception {
+        ParsingStatement body = stmt.body;
+        if (stmt.arrays != null && (step > 0 ? start <= end : start >= end)) {
+            long last = start + ((long) end - start) / step * step;
+            if (Math.min(start, last) >= 0 && BoundsCheck.covers(global, stmt.arrays, Math.max(start, last)))
+                body = stmt.uncheckedBody;
+        }
+        ParsingExpression.Variable variable = stmt.variable;
+        long i = start;
+        for (; step > 0 ? i <= end : i >= end; i += step) {
+            if (stmt.observed && variable.slot < 0) {
+                if (i < -128 || i > 127)
+                    boxedValues++;
+                global.assign(variable.name, (int) i);
+            } else {
+                if (stmt.observed)
+                    stack[frame + variable.slot] = i;
+                if (i < -128 || i > 127)
+                    unboxedValues++;
+            }
+            execute(body);
+            // a SUB or FUNCTION may have assigned it
+            if (stmt.calls)
+                i = (int) global.get(variable.name);
+            if (status != NORMAL && leavesLoop())
+                break;
+            if (++loopIterations >= loopCheckpoint)
+                checkLoopLimits(stmt);
+        }
+        store(variable.name, variable.slot, TokenType.INT, pastEnd(i));
+    }
+
+    // The value a FOR variable is left with after the loop, which stops at the
+    // INT limit when stepping past `end` went beyond it.
+    private static int pastEnd(long i) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, i));
+    }
+
+    // Runs the loop's kernel when its range is known up front and the limits
+    // cannot run out part way; otherwise, or when the kernel declines, the
+    // loop is interpreted. Statements and iterations are counted as if it had
+    // been.
+    @Override
+    public Void vectorized(ParsingStatement.Vectorized stmt) throws Exception {
+        long from, to;
+        ParsingStatement.For counted = null;
+        int start = 0, end = 0, step = 1;
+        if (stmt.loop instanceof ParsingStatement.For) {
+            counted = (ParsingStatement.For) stmt.loop;
+            start = loopBound(evaluate(counted.start), counted.token);
+            end = loopBound(evaluate(counted.end), counted.token);
+            step = counted.step == null ? 1 : loopBound(evaluate(counted.step), counted.token);
+            if (step == 0)
+                throw error(counted.token, "zero-step", "FOR step cannot be 0.");
+            from = start;
+            to = step == 1 ? end : from - 1;
+        } else {
+            BoundsCheck.Guard guard = ((ParsingStatement.While) stmt.loop).guard;
+            Object i = global.get(guard.index);
+            Object n = guard.bound == null ? (Object) guard.constant : global.get(guard.bound);
+            from = i instanceof Integer ? (int) i : 0;
+            to = i instanceof Integer && n instanceof Integer ? (long) (int) n - 1 + guard.inclusive : from - 1;
+        }
+        long count = to - from + 1;
+        long taken = -1;
+        if (count > 0 && statementsExecuted + count * (stmt.kernel.statements + 2) <= statementLimit
+                && (limits.maxLoopIterations <= 0 || loopIterations + count <= limits.maxLoopIterations))
+            taken = stmt.kernel.run(global, (int) from, (int) to);
+        if (taken < 0) {
+            if (counted != null)
+                loop(counted, start, end, step);
+            else
+                whileS((ParsingStatement.While) stmt.loop);
+            return null;
+        }
+        statementsExecuted += count * stmt.kernel.statements + taken * 2;
+        loopIterations += count;
+        unboxedValues += count;
+        Token index = counted != null ? counted.variable.name : ((ParsingStatement.While) stmt.loop).guard.index;
+        global.assign(index, pastEnd(to + 1));
+        if (loopIterations >= loopCheckpoint)
+            checkLoopLimits(stmt);
+
+        return null;
+    }
+
+    // The chunks depend only on the number of iterations, and the values they
+    // leave in the targets are combined in chunk order, so a FLOAT SUM comes
+    // out the same whether or not they ran at the same time. Each chunk runs
+    // in an Interpreter of its own over a copy of the globals, in which the
+    // targets start at the identity of their reduction; arrays are shared, as
+    // the Parser only lets an iteration assign its own element.
+    @Override
+    public Void parallelFor(ParsingStatement.ParallelFor stmt) throws Exception {
+        ParsingStatement.For loop = stmt.loop;
+        int start = loopBound(evaluate(loop.start), loop.token);
+        int end = loopBound(evaluate(loop.end), loop.token);
+        int step = loop.step == null ? 1 : loopBound(evaluate(loop.step), loop.token);
+        if (step == 0)
+            throw error(loop.token, "zero-step", "FOR step cannot be 0.");
+        long count = step > 0 ? (end >= start ? ((long) end - start) / step + 1 : 0)
+                : (start >= end ? ((long) start - end) / -step + 1 : 0);
+        int chunks = (int) Math.min(count, MAX_CHUNKS);
+        long statementsBefore = statementsExecuted, iterationsBefore = loopIterations;
+        // under a batch Scheduler the chunks stay on the case's own slot
+        boolean pooled = stmt.concurrent && count >= PARALLEL_ITERATIONS && task == null
+                && ForkJoinPool.getCommonPoolParallelism() > 1;
+        List<Interpreter> children = new ArrayList<Interpreter>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int k = 0; k < chunks; k++) {
+            long first = count * k / chunks, last = count * (k + 1) / chunks - 1;
+            ParsingStatement.For chunk = new ParsingStatement.For(loop.variable,
+                    new ParsingExpression.Literal((int) (start + first * step)),
+                    new ParsingExpression.Literal((int) (start + last * step)), new ParsingExpression.Literal(step),
+                    loop.body, loop.observed, loop.calls, loop.token, loop.arrays, loop.uncheckedBody);
+            Storage variables = global.copy();
+            for (int t = 0; t < stmt.targets.length; t++)
+                variables.assign(stmt.targets[t].name, stmt.reductions[t].identity(stmt.targets[t].type));
+            Interpreter child = fork(variables, pooled);
+            children.add(child);
+            tasks.add(() -> {
+                child.runChunk(chunk);
+                return null;
+            });
+        }
+        if (pooled)
+            ForkJoinPool.commonPool().invokeAll(tasks);
+        else
+            for (int k = 0; k < chunks && (k == 0 || children.get(k - 1).failure == null); k++)
+                tasks.get(k).call();
+        for (Interpreter child : children)
+            if (child.failure instanceof Error)
+                throw (Error) child.failure;
+            else if (child.failure != null)
+                throw (Exception) child.failure;
+        for (int t = 0; t < stmt.targets.length; t++) {
+            Token target = stmt.targets[t].name;
+            Object value = global.get(target);
+            for (Interpreter child : children)
+                value = stmt.reductions[t].combine(value, child.global.get(target));
+            global.assign(target, value);
+        }
+        for (Interpreter child : children) {
+            statementsExecuted += child.statementsExecuted - statementsBefore;
+            loopIterations += child.loopIterations - iterationsBefore;
+            boxedValues += child.boxedValues;
+            unboxedValues += child.unboxedValues;
+            peakStringLength = Math.max(peakStringLength, child.peakStringLength);
+            if (allocationBase >= 0 && child.thread != Thread.currentThread())
+                allocatedElsewhere += child.chunkAllocated;
+        }
+        store(loop.variable.name, -1, TokenType.INT, pastEnd(start + count * step));
+        if (statementsExecuted > statementLimit)
+            throw limitExceeded("statements", limits.maxStatements, stmt.token, "Statement limit of %d exceeded.");
+        if (loopIterations >= loopCheckpoint)
+            checkLoopLimits(stmt);
+
+        return null;
+    }
+
+    // Runs a chunk of a PARALLEL FOR under the limits of this Interpreter,
+    // counting on from its statements, loop iterations and allocated bytes. A
+    // chunk that runs on this thread also yields the Scheduler slot like it.
+    private Interpreter fork(Storage variables, boolean pooled) {
+        Interpreter child = new Interpreter(cfpl, in, out, limits);
+        child.global = variables;
+        child.task = pooled ? null : task;
+        // -1 when the run is not measured
+        child.allocatedElsewhere = allocatedBytes();
+        child.statementLimit = statementLimit;
+        child.deadline = deadline;
+        child.statementsExecuted = statementsExecuted;
+        child.loopIterations = loopIterations;
+        child.loopCheckpoint = child.nextLoopCheckpoint();
+
+        return child;
+    }
+
+    // The pool would wrap what a chunk throws, so the chunk keeps it instead
+    // and the caller rethrows the first in chunk order.
+    private void runChunk(ParsingStatement.For chunk) {
+        thread = Thread.currentThread();
+        long inherited = allocatedElsewhere;
+        if (inherited >= 0)
+            allocationBase = Usage.threadAllocatedBytes();
+        try {
+            execute(chunk);
+        } catch (Exception | Error e) {
+            failure = e;
+        } finally {
+            if (inherited >= 0)
+                chunkAllocated = allocatedBytes() - inherited;
+        }
+    }
+
+    // Takes a BREAK or CONTINUE that ended the loop body; true when the loop
+    // stops, which RETURN also does.
+    private boolean leavesLoop() {
+        if (status == CONTINUE) {
+            status = NORMAL;
+            return false;
+        }
+        if (status == BREAK)
+            status = NORMAL;
+
+        return true;
+    }
+
+    @Override
+    public Void caseS(ParsingStatement.Case stmt) throws Exception {
+        Object value = evaluate(stmt.selector);
+        int key;
+        if (stmt.type == TokenType.INT && value instanceof Integer)
+            key = (int) value;
+        else if (stmt.type == TokenType.CHAR && value instanceof Character)
+            key = (char) value;
+        else
+            throw error(stmt.token, "type-mismatch", "Expected CASE value as '%s'.", stmt.type);
+        int branch = stmt.labels.lookup(key);
+        ParsingStatement body = branch >= 0 ? stmt.branches[branch] : stmt.elseBranch;
+        if (body != null)
+            execute(body);
+
+        return null;
+    }
+
+    @Override
+    public Void jump(ParsingStatement.Jump stmt) {
+        status = stmt.exits ? BREAK : CONTINUE;
+
+        return null;
+    }
+
+    private int loopBound(Object value, Token token) throws Diagnostic {
+        if (value instanceof Integer)
+            return (int) value;
+
+        throw error(token, "integer-expected", "FOR bounds and step must be integers.");
+    }
+
+    private void checkLoopLimits(ParsingStatement stmt) throws Exception {
+        if (limits.maxLoopIterations > 0 && loopIterations > limits.maxLoopIterations)
+            throw limitExceeded("loops", limits.maxLoopIterations, stmt.token, "Loop iteration limit of %d exceeded.");
+        if (deadline != 0 && System.nanoTime() - deadline > 0)
+            throw limitExceeded("time", limits.timeoutMillis, stmt.token, "Time limit of %d ms exceeded.");
+        if (limits.maxMemoryBytes > 0)
+            checkMemoryLimit(stmt.token);
+        if (task != null)
+            task.yieldSlice();
+        loopCheckpoint = nextLoopCheckpoint();
+    }
+
+    private long nextLoopCheckpoint() {
+        long next = Long.MAX_VALUE;
+        if (limits.maxLoopIterations > 0)
+            next = limits.maxLoopIterations + 1;
+        if (deadline != 0 || limits.maxMemoryBytes > 0)
+            next = Math.min(next, loopIterations + CHECK_INTERVAL);
+        if (task != null)
+            next = Math.min(next, loopIterations + task.quantum());
+
+        return next;
+    }
+
+    private void checkMemoryLimit(Token token) throws Exception {
+        if (allocatedBytes() > limits.maxMemoryBytes)
+            throw limitExceeded("memory", limits.maxMemoryBytes, token, "Memory limit of %d bytes exceeded.");
+    }
+
+    // Bytes allocated since the program started, or -1 when not measured.
+    long allocatedBytes() {
+        if (allocationBase < 0)
+            return -1;
+
+        return Usage.threadAllocatedBytes() - allocationBase + allocatedElsewhere;
+    }
+
+    long liveValues() {
+        long live = 0;
+        for (Object value : global.values().values())
+            if (value != null)
+                live++;
+
+        return live;
+    }
+
+    private LimitExceededException limitExceeded(String limit, long value, Token token, String format) {
+        return new LimitExceededException(cfpl, limit, value, token, format, value);
+    }
+
     @Override
     public Object assign(ParsingExpression.Assign expr) throws Exception {
         Object value = evaluate(expr.value);
@@ -202,8 +680,14 @@ class Interpreter implements ParsingExpression.Visitor<Object>,
             value = x;
         }
         if (!Token.checkType(value, expr.type))
-            throw cfpl.newError(expr.name, String.format("Expected expression value as '%s'.", expr.type));
-        global.assign(expr.name, value);
+            throw error(expr.name, "type-mismatch", "Expected expression value as '%s'.", expr.type);
+        if (expr.slot >= 0)
+            stack[frame + expr.slot] = word(value, expr.type, expr.name);
+        else {
+            if (value instanceof Double || value instanceof Integer && ((int) value < -128 || (int) value > 127))
+                boxedValues++;
+            global.assign(expr.name, value);
+        }
 
         return value;
     }
@@ -301,19 +785,290 @@ class Interpreter implements ParsingExpression.Visitor<Object>,
                 if (left instanceof Integer && right instanceof Integer)
                     return (int) left % (int) right;
                 else
-                    throw cfpl.newError(expr.operator, "Operand must be an integer.");
+                    throw error(expr.operator, "integer-expected", "Operand must be an integer.");
             case AMPERSAND:
-                return stringify(left) + stringify(right);
+                String text = stringify(left) + stringify(right);
+                if (text.length() > peakStringLength) {
+                    peakStringLength = text.length();
+                    if (limits.maxMemoryBytes > 0)
+                        checkMemoryLimit(expr.operator);
+                }
+                return text;
             default:
-                throw cfpl.newError(expr.operator, "Invalid binary operator.");
+                throw error(expr.operator, "invalid-operator", "Invalid binary operator.");
         }
     }
 
+    @Override
+    public Object allocate(ParsingExpression.Allocate expr) throws Exception {
+        Object length = evaluate(expr.length);
+        if (!(length instanceof Integer) || (int) length < 0)
+            throw error(expr.bracket, "invalid-length", "Array length must be a non-negative integer.");
+        int n = (int) length;
+        long bytes = (long) n * (expr.type == TokenType.FLOAT ? 8 : expr.type == TokenType.INT ? 4
+                : expr.type == TokenType.CHAR ? 2 : 1);
+        if (limits.maxMemoryBytes > 0 && allocatedBytes() + bytes > limits.maxMemoryBytes)
+            throw limitExceeded("memory", limits.maxMemoryBytes, expr.bracket, "Memory limit of %d bytes exceeded.");
+        try {
+            switch (expr.type) {
+                case INT:
+                    return new int[n];
+                case FLOAT:
+                    return new double[n];
+                case BOOL:
+                    return new boolean[n];
+                case CHAR:
+                    return new char[n];
+                default:
+                    throw error(expr.bracket, "invalid-type", "Unsupported array type '%s'.", expr.type);
+            }
+        } catch (OutOfMemoryError e) {
+            throw error(expr.bracket, "array-too-large", "Array of %d elements does not fit in memory.", n);
+        }
+    }
+
+    @Override
+    public Object index(ParsingExpression.Index expr) throws Exception {
+        Object array = global.get(expr.name);
+        int i = subscript(array, expr.index, expr.name, expr.bracket, expr.checked);
+        if (array instanceof int[])
+            return ((int[]) array)[i];
+        if (array instanceof double[])
+            return ((double[]) array)[i];
+        if (array instanceof boolean[])
+            return ((boolean[]) array)[i];
+
+        return ((char[]) array)[i];
+    }
+
+    @Override
+    public Object setIndex(ParsingExpression.SetIndex expr) throws Exception {
+        Object array = global.get(expr.name);
+        int i = subscript(array, expr.index, expr.name, expr.bracket, expr.checked);
+        Object value = evaluate(expr.value);
+        if (expr.type == TokenType.FLOAT && value instanceof Integer)
+            value = (double) (int) value;
+        if (!Token.checkType(value, expr.type))
+            throw error(expr.name, "type-mismatch", "Expected expression value as '%s'.", expr.type);
+        if (array instanceof int[])
+            ((int[]) array)[i] = (int) value;
+        else if (array instanceof double[])
+            ((double[]) array)[i] = (double) value;
+        else if (array instanceof boolean[])
+            ((boolean[]) array)[i] = (boolean) value;
+        else
+            ((char[]) array)[i] = (char) value;
+
+        return value;
+    }
+
+    // Evaluates an array index. Unchecked accesses have been proven in range
+    // by BoundsCheck, which leaves only the JVM's own check.
+    private int subscript(Object array, ParsingExpression index, Token name, Token bracket, boolean checked)
+            throws Exception {
+        Object value = evaluate(index);
+        if (!(value instanceof Integer))
+            throw error(bracket, "integer-expected", "Array index must be an integer.");
+        int i = (int) value;
+        if (checked) {
+            int length = length(array, name);
+            if (i < 0 || i >= length)
+                throw error(bracket, "index-out-of-bounds", "Index %d is out of bounds for '%s' of length %d.", i,
+                        name.lexeme, length);
+        }
+
+        return i;
+    }
+
+    private int length(Object array, Token name) throws Exception {
+        if (array instanceof int[])
+            return ((int[]) array).length;
+        if (array instanceof double[])
+            return ((double[]) array).length;
+        if (array instanceof boolean[])
+            return ((boolean[]) array).length;
+        if (array instanceof char[])
+            return ((char[]) array).length;
+
+        throw error(name, "not-an-array", "Variable '%s' is not an array.", name.lexeme);
+    }
+
+    // Declarations run before the program starts; see call.
+    @Override
+    public Void function(ParsingStatement.Function stmt) {
+        return null;
+    }
+
+    // Runs a SUB or FUNCTION in a new frame on top of the stack. A self tail
+    // call leaves its arguments just above the frame and ends the body with
+    // TAIL_CALL, and the body then starts over on the same frame, so tail
+    // recursion runs in constant space. Every run of a body counts as a loop
+    // iteration for the limits.
+    @Override
+    public Object call(ParsingExpression.Call expr) throws Exception {
+        ParsingStatement.Function function = expr.function;
+        if (depth == MAX_CALL_DEPTH)
+            throw error(expr.name, "stack-overflow", "Call depth limit of %d exceeded in '%s'.", MAX_CALL_DEPTH,
+                    expr.name.lexeme);
+        int arity = function.parameters.length;
+        int base = top;
+        if (stack == null || base + function.types.length + arity > stack.length)
+            growStack(base + function.types.length + arity, expr.name);
+        top = base + function.types.length;
+        int caller = frame;
+        ParsingStatement.Function callerRoutine = routine;
+        depth++;
+        try {
+            // an argument can call deeper and grow the stack, so the array is
+            // only read once it has been evaluated
+            for (int i = 0; i < arity; i++) {
+                long argument = word(evaluate(expr.arguments[i]), function.types[i], expr.name);
+                stack[base + i] = argument;
+            }
+            frame = base;
+            routine = function;
+            do {
+                if (status == TAIL_CALL)
+                    System.arraycopy(stack, top, stack, base, arity);
+                status = NORMAL;
+                if (++loopIterations >= loopCheckpoint)
+                    checkLoopLimits(function);
+                execute(function.body);
+            } while (status == TAIL_CALL);
+        } catch (StackOverflowError e) {
+            throw error(expr.name, "stack-overflow", "Call stack overflow in '%s'.", expr.name.lexeme);
+        } finally {
+            frame = caller;
+            routine = callerRoutine;
+            top = base;
+            depth--;
+        }
+        boolean returned = status == RETURN;
+        Object value = returnValue;
+        status = NORMAL;
+        returnValue = null;
+        if (function.type != null && !returned)
+            throw error(function.name, "missing-return", "FUNCTION '%s' ended without RETURN.",
+                    function.name.lexeme);
+
+        return value;
+    }
+
+    private void growStack(int slots, Token token) throws Diagnostic {
+        if (slots > MAX_STACK_SLOTS)
+            throw error(token, "stack-overflow", "Call stack overflow in '%s'.", token.lexeme);
+        int length = stack == null ? INITIAL_STACK_SLOTS : stack.length;
+        while (length < slots)
+            length *= 2;
+        stack = stack == null ? new long[length] : Arrays.copyOf(stack, length);
+    }
+
+    @Override
+    public Void returnS(ParsingStatement.Return stmt) throws Exception {
+        if (stmt.tailArguments != null) {
+            // arguments may call other functions, which must not overwrite them
+            int scratch = top;
+            top += stmt.tailArguments.length;
+            try {
+                for (int i = 0; i < stmt.tailArguments.length; i++) {
+                    long argument = word(evaluate(stmt.tailArguments[i]), stmt.function.types[i], stmt.token);
+                    stack[scratch + i] = argument;
+                }
+            } finally {
+                top = scratch;
+            }
+            status = TAIL_CALL;
+            return null;
+        }
+        Object value = stmt.value == null ? null : evaluate(stmt.value);
+        if (stmt.function.type == TokenType.FLOAT && value instanceof Integer)
+            value = (double) (int) value;
+        if (stmt.function.type != null && !Token.checkType(value, stmt.function.type))
+            throw error(stmt.token, "type-mismatch", "Expected return value as '%s'.", stmt.function.type);
+        returnValue = value;
+        status = RETURN;
+
+        return null;
+    }
+
+    @Override
+    public Object builtin(ParsingExpression.Builtin expr) throws Exception {
+        ParsingExpression[] arguments = expr.arguments;
+        Object value = evaluate(arguments[0]);
+        switch (expr.intrinsic) {
+            case LEN:
+                return stringify(value).length();
+            case SUBSTR:
+                String text = stringify(value);
+                int start = integerArgument(expr, 1, evaluate(arguments[1]));
+                int length = integerArgument(expr, 2, evaluate(arguments[2]));
+                if (start < 0 || length < 0 || (long) start + length > text.length())
+                    throw error(expr.name, "index-out-of-bounds",
+                            "SUBSTR from %d for %d is out of bounds for text of length %d.", start, length,
+                            text.length());
+                return text.substring(start, start + length);
+            case ORD:
+                if (value instanceof Character)
+                    return (int) (char) value;
+                throw argumentError(expr, 0);
+            case CHR:
+                int code = integerArgument(expr, 0, value);
+                if (code < Character.MIN_VALUE || code > Character.MAX_VALUE)
+                    throw error(expr.name, "invalid-argument", "%d is not a character code.", code);
+                return (char) code;
+            case ABS:
+                if (value instanceof Integer)
+                    return Math.abs((int) value);
+                return Math.abs(doubleArgument(expr, 0, value));
+            case SQRT:
+                return Math.sqrt(doubleArgument(expr, 0, value));
+            case POW:
+                return Math.pow(doubleArgument(expr, 0, value), doubleArgument(expr, 1, evaluate(arguments[1])));
+            case MIN:
+            case MAX:
+                Object other = evaluate(arguments[1]);
+                if (value instanceof Integer && other instanceof Integer)
+                    return expr.intrinsic == Intrinsic.MIN ? Math.min((int) value, (int) other)
+                            : Math.max((int) value, (int) other);
+                double a = doubleArgument(expr, 0, value), b = doubleArgument(expr, 1, other);
+                return expr.intrinsic == Intrinsic.MIN ? Math.min(a, b) : Math.max(a, b);
+            case TOINT:
+                if (value instanceof Integer)
+                    return value;
+                return (int) doubleArgument(expr, 0, value);
+            case TOFLOAT:
+                return doubleArgument(expr, 0, value);
+            default:
+                throw error(expr.name, "invalid-operator", "Invalid built-in function.");
+        }
+    }
+
+    private int integerArgument(ParsingExpression.Builtin expr, int i, Object value) throws Diagnostic {
+        if (value instanceof Integer)
+            return (int) value;
+
+        throw argumentError(expr, i);
+    }
+
+    private double doubleArgument(ParsingExpression.Builtin expr, int i, Object value) throws Diagnostic {
+        if (value instanceof Integer)
+            return (int) value;
+        if (value instanceof Double)
+            return (double) value;
+
+        throw argumentError(expr, i);
+    }
+
+    private Diagnostic argumentError(ParsingExpression.Builtin expr, int i) {
+        return error(expr.name, "type-mismatch", "Expected argument %d of '%s' as '%s'.", i + 1, expr.name.lexeme,
+                expr.intrinsic.operands[i]);
+    }
+
     private void checkNumberOperand(Token operator, Object operand) throws Exception {
         if (operand instanceof Double || operand instanceof Integer)
             return;
 
-        throw cfpl.newError(operator, "Operand must be a number.");
+        throw error(operator, "number-expected", "Operand must be a number.");
     }
 
     private void checkNumberOperands(Token operator,
@@ -322,14 +1077,83 @@ class Interpreter implements ParsingExpression.Visitor<Object>,
                 && (right instanceof Double || right instanceof Integer))
             return;
 
-        throw cfpl.newError(operator, "Operand must be a number.");
+        throw error(operator, "number-expected", "Operand must be a number.");
+    }
+
+    // A thread that can run programs to the full call depth.
+    static Thread newThread(Runnable body, String name) {
+        return new Thread(null, () -> {
+            largeStack.set(true);
+            body.run();
+        }, name, THREAD_STACK_BYTES);
     }
 
     void interpret(List<ParsingStatement> statements) throws Exception {
+        if (!largeStack.get()) {
+            interpretOnLargeStack(statements);
+            return;
+        }
+        if (limits.maxStatements > 0)
+            statementLimit = limits.maxStatements;
+        if (limits.timeoutMillis > 0)
+            deadline = System.nanoTime() + limits.timeoutMillis * 1_000_000;
+        if (measureAllocation || limits.maxMemoryBytes > 0) {
+            allocationBase = Usage.threadAllocatedBytes();
+            allocatedElsewhere = 0;
+        }
+        loopCheckpoint = nextLoopCheckpoint();
         for (ParsingStatement statement : statements)
             execute(statement);
     }
 
+    // Runs the program on a thread of its own, for callers whose thread has a
+    // default stack, and counts what it allocates there.
+    private void interpretOnLargeStack(List<ParsingStatement> statements) throws Exception {
+        Throwable[] failure = new Throwable[1];
+        long[] allocated = new long[1];
+        Thread thread = newThread(() -> {
+            try {
+                interpret(statements);
+            } catch (Exception | Error e) {
+                failure[0] = e;
+            } finally {
+                allocated[0] = allocatedBytes();
+            }
+        }, "cfpl");
+        thread.start();
+        thread.join();
+        if (allocationBase >= 0) {
+            allocatedElsewhere = allocated[0];
+            allocationBase = Usage.threadAllocatedBytes();
+        }
+        if (failure[0] instanceof Error)
+            throw (Error) failure[0];
+        if (failure[0] != null)
+            throw (Exception) failure[0];
+    }
+
+    // Runs the next input of the REPL on the same globals. The counters start
+    // over, so every input gets the whole of the limits.
+    void resume(List<ParsingStatement> statements) throws Exception {
+        statementsExecuted = 0;
+        loopIterations = 0;
+        outputBytes = 0;
+        status = NORMAL;
+        returnValue = null;
+        interpret(statements);
+    }
+
+    private static long utf8Length(String text) {
+        long length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80)
+                length += c >= 0x800 && !Character.isSurrogate(c) ? 2 : 1;
+        }
+
+        return length;
+    }
+
     private String stringify(Object object) {
         if (object == null)
             return "null";
@@ -0,0 +1,87 @@
+import java.util.HashMap;
+import java.util.Map;
+
+// Built-in functions, implemented in Java by Interpreter.builtin.
+//
+// The Parser resolves a call to one of these names to its constant, unless a
+// variable, SUB or FUNCTION of the same name is declared, and checks the
+// arguments whose type it knows. The Interpreter then switches on the
+// constant, so a call costs no lookup at run time.
+enum Intrinsic {
+    LEN(Operand.ANY),
+    SUBSTR(Operand.ANY, Operand.INT, Operand.INT),
+    ORD(Operand.CHAR),
+    CHR(Operand.INT),
+    ABS(Operand.NUMBER),
+    SQRT(Operand.NUMBER),
+    POW(Operand.NUMBER, Operand.NUMBER),
+    MIN(Operand.NUMBER, Operand.NUMBER),
+    MAX(Operand.NUMBER, Operand.NUMBER),
+    TOINT(Operand.NUMBER),
+    TOFLOAT(Operand.NUMBER);
+
+    // What an argument may be. ANY is turned into text the way OUTPUT does.
+    enum Operand {
+        ANY, NUMBER, INT, CHAR;
+
+        // `type` is a declared type, or STR_LIT for text; null is unknown.
+        boolean accepts(TokenType type) {
+            switch (this) {
+                case NUMBER:
+                    return type == null || type == TokenType.INT || type == TokenType.FLOAT;
+                case INT:
+                    return type == null || type == TokenType.INT;
+                case CHAR:
+                    return type == null || type == TokenType.CHAR;
+                default:
+                    return true;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this == NUMBER ? "INT' or 'FLOAT" : name();
+        }
+    }
+
+    private static final Map<String, Intrinsic> names = new HashMap<String, Intrinsic>();
+
+    static {
+        for (Intrinsic intrinsic : values())
+            names.put(intrinsic.name(), intrinsic);
+    }
+
+    final Operand[] operands;
+
+    Intrinsic(Operand... operands) {
+        this.operands = operands;
+    }
+
+    static Intrinsic named(String name) {
+        return names.get(name);
+    }
+
+    // The type of the result for arguments of `types`, STR_LIT for text, or
+    // null when it depends on an argument of unknown type.
+    TokenType result(TokenType[] types) {
+        switch (this) {
+            case LEN:
+            case ORD:
+            case TOINT:
+                return TokenType.INT;
+            case SUBSTR:
+                return TokenType.STR_LIT;
+            case CHR:
+                return TokenType.CHAR;
+            case ABS:
+                return types[0];
+            case MIN:
+            case MAX:
+                if (types[0] == TokenType.INT && types[1] == TokenType.INT)
+                    return TokenType.INT;
+                return types[0] == TokenType.FLOAT || types[1] == TokenType.FLOAT ? TokenType.FLOAT : null;
+            default:
+                return TokenType.FLOAT;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.Arrays;
+import java.util.List;
+
+// Maps the constant labels of a CASE statement to the index of their branch.
+//
+// Labels that fill at least a quarter of the range between the lowest and the
+// highest are kept in an array indexed by label - low, so dispatch is one
+// subtraction and one load; sparser labels are kept sorted and found by binary
+// search. CHAR labels are stored as their code.
+final class JumpTable {
+    private static final int SLACK = 16;
+
+    private final int low;
+    private final int[] table;
+    private final int[] keys;
+    private final int[] branches;
+
+    private JumpTable(int low, int[] table, int[] keys, int[] branches) {
+        this.low = low;
+        this.table = table;
+        this.keys = keys;
+        this.branches = branches;
+    }
+
+    // `keys` are distinct; `branches` holds the branch of each key.
+    static JumpTable of(List<Integer> keys, List<Integer> branches) {
+        int n = keys.size();
+        long low = Integer.MAX_VALUE, high = Integer.MIN_VALUE;
+        for (int key : keys) {
+            low = Math.min(low, key);
+            high = Math.max(high, key);
+        }
+        if (n > 0 && high - low + 1 <= 4L * n + SLACK) {
+            int[] table = new int[(int) (high - low + 1)];
+            Arrays.fill(table, -1);
+            for (int i = 0; i < n; i++)
+                table[(int) (keys.get(i) - low)] = branches.get(i);
+            return new JumpTable((int) low, table, null, null);
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(keys.get(a), keys.get(b)));
+        int[] sortedKeys = new int[n];
+        int[] sortedBranches = new int[n];
+        for (int i = 0; i < n; i++) {
+            sortedKeys[i] = keys.get(order[i]);
+            sortedBranches[i] = branches.get(order[i]);
+        }
+
+        return new JumpTable(0, null, sortedKeys, sortedBranches);
+    }
+
+    // The branch for `key`, or -1 when no label matches.
+    int lookup(int key) {
+        if (table != null) {
+            long i = (long) key - low;
+            return i >= 0 && i < table.length ? table[(int) i] : -1;
+        }
+        int i = Arrays.binarySearch(keys, key);
+
+        return i >= 0 ? branches[i] : -1;
+    }
+}
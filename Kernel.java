@@ -0,0 +1,529 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Runs a loop over INT or FLOAT arrays as one Java loop when its body is one of
+// these statements, for the loop index i, arrays a, b, c, invariant values k
+// (literals, or variables the body does not assign) and op one of + - *:
+//
+//   c[i] = a[i] op b[i]    c[i] = a[i] op k    c[i] = a[i]    c[i] = k
+//   s = s + a[i]    s = s + a[i] * b[i]    s = s + a[i] * k
+//   IF (a[i] < b[i]) START n = n + 1 STOP, for any comparison, or with k
+//
+// The loop is a FOR with step 1, or a WHILE that BoundsCheck gave a guard with
+// step 1 and whose body is the statement and the increment. The Java loops are
+// plain counted loops over int[] or double[], which the JIT unrolls and turns
+// into SIMD instructions where it can; sums keep their order, so a FLOAT sum
+// comes out the same as when interpreted. run() declines, and the loop is
+// interpreted, when an index would be out of range.
+final class Kernel {
+    private static final int MAP = 0, SUM = 1, COUNT = 2;
+
+    private final int shape;
+    // The type of the array elements read, and of the target: c for MAP, s for
+    // SUM and n for COUNT.
+    private final TokenType type;
+    private final Token target;
+    private final TokenType targetType;
+    // a, then b or k; either may be null for MAP and SUM.
+    private final Token left;
+    private final Token right;
+    private final ParsingExpression invariant;
+    private final TokenType operator;
+    // Statements run by each iteration, and by each that takes the IF.
+    final int statements;
+
+    private Kernel(int shape, TokenType type, Token target, TokenType targetType, Token left, Token right,
+            ParsingExpression invariant, TokenType operator, int statements) {
+        this.shape = shape;
+        this.type = type;
+        this.target = target;
+        this.targetType = targetType;
+        this.left = left;
+        this.right = right;
+        this.invariant = invariant;
+        this.operator = operator;
+        this.statements = statements;
+    }
+
+    static ParsingStatement vectorize(ParsingStatement.For loop, Map<String, TokenType> types, Set<String> arrays) {
+        if (loop.variable.slot >= 0 || !(loop.body instanceof ParsingStatement.Block))
+            return loop;
+        List<ParsingStatement> body = ((ParsingStatement.Block) loop.body).statements;
+        Kernel kernel = body.size() == 1
+                ? match(body.get(0), loop.variable.name.lexeme, types, arrays, 2) : null;
+
+        return kernel == null ? loop : new ParsingStatement.Vectorized(loop, kernel);
+    }
+
+    static ParsingStatement vectorize(ParsingStatement.While loop, Map<String, TokenType> types, Set<String> arrays) {
+        if (loop.guard == null || loop.guard.step != 1)
+            return loop;
+        List<ParsingStatement> body = ((ParsingStatement.Block) loop.body).statements;
+        Kernel kernel = body.size() == 2
+                ? match(body.get(0), loop.guard.index.lexeme, types, arrays, 3) : null;
+
+        return kernel == null ? loop : new ParsingStatement.Vectorized(loop, kernel);
+    }
+
+    private static Kernel match(ParsingStatement stmt, String index, Map<String, TokenType> types,
+            Set<String> arrays, int statements) {
+        Shapes shapes = new Shapes(index, types, arrays);
+        if (stmt instanceof ParsingStatement.Expression) {
+            ParsingExpression expr = ((ParsingStatement.Expression) stmt).expression;
+            if (expr instanceof ParsingExpression.SetIndex)
+                return shapes.map((ParsingExpression.SetIndex) expr, statements);
+            if (expr instanceof ParsingExpression.Assign)
+                return shapes.sum((ParsingExpression.Assign) expr, statements);
+        }
+        if (stmt instanceof ParsingStatement.If)
+            return shapes.count((ParsingStatement.If) stmt, statements);
+
+        return null;
+    }
+
+    // Recognizes the statements above for one loop index.
+    private static final class Shapes {
+        private final String index;
+        private final Map<String, TokenType> types;
+        private final Set<String> arrays;
+
+        Shapes(String index, Map<String, TokenType> types, Set<String> arrays) {
+            this.index = index;
+            this.types = types;
+            this.arrays = arrays;
+        }
+
+        private static ParsingExpression unwrap(ParsingExpression expr) {
+            while (expr instanceof ParsingExpression.Grouping)
+                expr = ((ParsingExpression.Grouping) expr).expression;
+
+            return expr;
+        }
+
+        private static boolean isNumber(TokenType type) {
+            return type == TokenType.INT || type == TokenType.FLOAT;
+        }
+
+        private boolean isIndex(ParsingExpression expr) {
+            expr = unwrap(expr);
+            return expr instanceof ParsingExpression.Variable
+                    && ((ParsingExpression.Variable) expr).name.lexeme.equals(index);
+        }
+
+        // The element type of `expr` when it is a[i] for an INT or FLOAT
+        // array a, else null.
+        private TokenType element(ParsingExpression expr) {
+            expr = unwrap(expr);
+            if (!(expr instanceof ParsingExpression.Index))
+                return null;
+            ParsingExpression.Index element = (ParsingExpression.Index) expr;
+            TokenType type = types.get(element.name.lexeme);
+
+            return arrays.contains(element.name.lexeme) && isNumber(type) && isIndex(element.index) ? type : null;
+        }
+
+        // The type of `expr` when it is an INT or FLOAT literal or global
+        // variable other than i and `target`, else null.
+        private TokenType invariant(ParsingExpression expr, String target) {
+            expr = unwrap(expr);
+            if (expr instanceof ParsingExpression.Literal) {
+                Object value = ((ParsingExpression.Literal) expr).value;
+                return value instanceof Integer ? TokenType.INT : value instanceof Double ? TokenType.FLOAT : null;
+            }
+            if (!(expr instanceof ParsingExpression.Variable))
+                return null;
+            ParsingExpression.Variable variable = (ParsingExpression.Variable) expr;
+            String name = variable.name.lexeme;
+            if (variable.slot >= 0 || name.equals(index) || name.equals(target) || arrays.contains(name))
+                return null;
+            TokenType type = types.get(name);
+
+            return isNumber(type) ? type : null;
+        }
+
+        // An invariant of `type` may stand next to elements of `elements`:
+        // the same type, or INT where the elements are FLOAT.
+        private static boolean fits(TokenType type, TokenType elements) {
+            return type == elements || (type == TokenType.INT && elements == TokenType.FLOAT);
+        }
+
+        private static Token name(ParsingExpression expr) {
+            return ((ParsingExpression.Index) unwrap(expr)).name;
+        }
+
+        // c[i] = a[i] op b[i] | a[i] op k | k op a[i] | a[i] | k
+        Kernel map(ParsingExpression.SetIndex expr, int statements) {
+            TokenType type = expr.type;
+            if (!isNumber(type) || !isIndex(expr.index))
+                return null;
+            ParsingExpression value = unwrap(expr.value);
+            if (element(value) == type)
+                return new Kernel(MAP, type, expr.name, type, name(value), null, null, null, statements);
+            TokenType constant = invariant(value, null);
+            if (constant != null && fits(constant, type))
+                return new Kernel(MAP, type, expr.name, type, null, null, value, null, statements);
+            if (!(value instanceof ParsingExpression.Binary))
+                return null;
+            ParsingExpression.Binary binary = (ParsingExpression.Binary) value;
+            TokenType operator = binary.operator.type;
+            if (operator != TokenType.ADDITION && operator != TokenType.SUBTRACTION
+                    && operator != TokenType.MULTIPLICATION)
+                return null;
+            ParsingExpression a = binary.left, b = binary.right;
+            if (element(a) == null && operator != TokenType.SUBTRACTION) {
+                a = binary.right;
+                b = binary.left;
+            }
+            if (element(a) != type)
+                return null;
+            if (element(b) == type)
+                return new Kernel(MAP, type, expr.name, type, name(a), name(b), null, operator, statements);
+            constant = invariant(b, null);
+            if (constant == null || !fits(constant, type))
+                return null;
+
+            return new Kernel(MAP, type, expr.name, type, name(a), null, unwrap(b), operator, statements);
+        }
+
+        // s = s + t | t + s, where t is a[i] | a[i] * b[i] | a[i] * k | k * a[i]
+        Kernel sum(ParsingExpression.Assign expr, int statements) {
+            if (expr.slot >= 0 || !(unwrap(expr.value) instanceof ParsingExpression.Binary))
+                return null;
+            String name = expr.name.lexeme;
+            TokenType targetType = types.get(name);
+            if (!isNumber(targetType) || arrays.contains(name) || name.equals(index))
+                return null;
+            ParsingExpression.Binary binary = (ParsingExpression.Binary) unwrap(expr.value);
+            if (binary.operator.type != TokenType.ADDITION)
+                return null;
+            ParsingExpression term;
+            if (unwrap(binary.left) instanceof ParsingExpression.Variable
+                    && ((ParsingExpression.Variable) unwrap(binary.left)).name.lexeme.equals(name))
+                term = unwrap(binary.right);
+            else if (unwrap(binary.right) instanceof ParsingExpression.Variable
+                    && ((ParsingExpression.Variable) unwrap(binary.right)).name.lexeme.equals(name))
+                term = unwrap(binary.left);
+            else
+                return null;
+            TokenType type = element(term);
+            if (type != null)
+                return targetType == TokenType.INT && type != TokenType.INT ? null
+                        : new Kernel(SUM, type, expr.name, targetType, name(term), null, null, null, statements);
+            if (!(term instanceof ParsingExpression.Binary)
+                    || ((ParsingExpression.Binary) term).operator.type != TokenType.MULTIPLICATION)
+                return null;
+            ParsingExpression a = ((ParsingExpression.Binary) term).left, b = ((ParsingExpression.Binary) term).right;
+            if (element(a) == null) {
+                a = ((ParsingExpression.Binary) term).right;
+                b = ((ParsingExpression.Binary) term).left;
+            }
+            type = element(a);
+            if (type == null || (targetType == TokenType.INT && type != TokenType.INT))
+                return null;
+            if (element(b) == type)
+                return new Kernel(SUM, type, expr.name, targetType, name(a), name(b), null, TokenType.MULTIPLICATION,
+                        statements);
+            TokenType constant = invariant(b, name);
+            if (constant == null || !fits(constant, type))
+                return null;
+
+            return new Kernel(SUM, type, expr.name, targetType, name(a), null, unwrap(b), TokenType.MULTIPLICATION,
+                    statements);
+        }
+
+        // IF (a[i] cmp b[i] | a[i] cmp k | k cmp a[i]) START n = n + 1 STOP
+        Kernel count(ParsingStatement.If stmt, int statements) {
+            if (stmt.elseBranch != null || !(stmt.thenBranch instanceof ParsingStatement.Block)
+                    || !(unwrap(stmt.condition) instanceof ParsingExpression.Binary))
+                return null;
+            List<ParsingStatement> then = ((ParsingStatement.Block) stmt.thenBranch).statements;
+            if (then.size() != 1 || !(then.get(0) instanceof ParsingStatement.Expression)
+                    || !(((ParsingStatement.Expression) then.get(0)).expression instanceof ParsingExpression.Assign))
+                return null;
+            ParsingExpression.Assign increment = (ParsingExpression.Assign) ((ParsingStatement.Expression) then
+                    .get(0)).expression;
+            String name = increment.name.lexeme;
+            if (increment.slot >= 0 || types.get(name) != TokenType.INT || arrays.contains(name)
+                    || name.equals(index) || !(unwrap(increment.value) instanceof ParsingExpression.Binary))
+                return null;
+            ParsingExpression.Binary sum = (ParsingExpression.Binary) unwrap(increment.value);
+            ParsingExpression counter = unwrap(sum.left), one = unwrap(sum.right);
+            if (!(counter instanceof ParsingExpression.Variable)) {
+                counter = unwrap(sum.right);
+                one = unwrap(sum.left);
+            }
+            if (sum.operator.type != TokenType.ADDITION || !(counter instanceof ParsingExpression.Variable)
+                    || !((ParsingExpression.Variable) counter).name.lexeme.equals(name)
+                    || !(one instanceof ParsingExpression.Literal)
+                    || !Integer.valueOf(1).equals(((ParsingExpression.Literal) one).value))
+                return null;
+
+            ParsingExpression.Binary condition = (ParsingExpression.Binary) unwrap(stmt.condition);
+            TokenType operator = condition.operator.type;
+            ParsingExpression a = condition.left, b = condition.right;
+            if (element(a) == null) {
+                a = condition.right;
+                b = condition.left;
+                operator = mirror(operator);
+            }
+            TokenType type = element(a);
+            if (type == null || operator == null)
+                return null;
+            if (element(b) == type)
+                return new Kernel(COUNT, type, increment.name, TokenType.INT, name(a), name(b), null, operator,
+                        statements);
+            TokenType constant = invariant(b, name);
+            boolean equality = operator == TokenType.EQUAL || operator == TokenType.NOT_EQUAL;
+            // equality across INT and FLOAT is always false; see Interpreter.isEqual
+            if (constant == null || !fits(constant, type) || (equality && constant != type))
+                return null;
+
+            return new Kernel(COUNT, type, increment.name, TokenType.INT, name(a), null, unwrap(b), operator,
+                    statements);
+        }
+
+        // The comparison with its operands swapped, or null for another operator.
+        private static TokenType mirror(TokenType operator) {
+            switch (operator) {
+                case LESSER:
+                    return TokenType.GREATER;
+                case LESSER_EQUAL:
+                    return TokenType.GREATER_EQUAL;
+                case GREATER:
+                    return TokenType.LESSER;
+                case GREATER_EQUAL:
+                    return TokenType.LESSER_EQUAL;
+                case EQUAL:
+                case NOT_EQUAL:
+                    return operator;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    // Runs iterations `from` to `to` of the loop, both included, and returns
+    // how many took the IF, or -1 when the loop has to be interpreted instead.
+    long run(Storage variables, int from, int to) throws Exception {
+        Object a = left == null ? null : variables.get(left);
+        Object b = right == null ? null : variables.get(right);
+        Object c = shape == MAP ? variables.get(target) : null;
+        if (from < 0 || !fits(a, to) || !fits(b, to) || !fits(c, to))
+            return -1;
+        Object k = invariant == null ? null
+                : invariant instanceof ParsingExpression.Literal ? ((ParsingExpression.Literal) invariant).value
+                        : variables.get(((ParsingExpression.Variable) invariant).name);
+        int end = to + 1;
+        switch (shape) {
+            case MAP:
+                if (type == TokenType.INT)
+                    map((int[]) c, (int[]) a, (int[]) b, k == null ? 0 : (int) k, from, end);
+                else
+                    map((double[]) c, (double[]) a, (double[]) b, k == null ? 0 : ((Number) k).doubleValue(), from,
+                            end);
+                return 0;
+            case SUM:
+                Object total = variables.get(target);
+                if (targetType == TokenType.INT)
+                    total = sum((int) total, (int[]) a, (int[]) b, k == null ? 1 : (int) k, from, end);
+                else if (type == TokenType.INT)
+                    total = sum((double) total, (int[]) a, (int[]) b, k == null ? 1 : (int) k, from, end);
+                else
+                    total = sum((double) total, (double[]) a, (double[]) b, k == null ? 1 : ((Number) k).doubleValue(),
+                            from, end);
+                variables.assign(target, total);
+                return 0;
+            default:
+                int taken = type == TokenType.INT
+                        ? count((int[]) a, (int[]) b, k == null ? 0 : (int) k, from, end)
+                        : count((double[]) a, (double[]) b, k == null ? 0 : ((Number) k).doubleValue(), from, end);
+                variables.assign(target, (int) variables.get(target) + taken);
+                return taken;
+        }
+    }
+
+    private boolean fits(Object array, int to) {
+        if (array == null)
+            return true;
+        if (type == TokenType.INT)
+            return array instanceof int[] && to < ((int[]) array).length;
+
+        return array instanceof double[] && to < ((double[]) array).length;
+    }
+
+    private void map(int[] c, int[] a, int[] b, int k, int from, int end) {
+        if (operator == null) {
+            if (a != null)
+                System.arraycopy(a, from, c, from, end - from);
+            else
+                Arrays.fill(c, from, end, k);
+            return;
+        }
+        switch (operator) {
+            case ADDITION:
+                if (b != null)
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] + b[i];
+                else
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] + k;
+                break;
+            case SUBTRACTION:
+                if (b != null)
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] - b[i];
+                else
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] - k;
+                break;
+            default:
+                if (b != null)
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] * b[i];
+                else
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] * k;
+        }
+    }
+
+    private void map(double[] c, double[] a, double[] b, double k, int from, int end) {
+        if (operator == null) {
+            if (a != null)
+                System.arraycopy(a, from, c, from, end - from);
+            else
+                Arrays.fill(c, from, end, k);
+            return;
+        }
+        switch (operator) {
+            case ADDITION:
+                if (b != null)
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] + b[i];
+                else
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] + k;
+                break;
+            case SUBTRACTION:
+                if (b != null)
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] - b[i];
+                else
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] - k;
+                break;
+            default:
+                if (b != null)
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] * b[i];
+                else
+                    for (int i = from; i < end; i++)
+                        c[i] = a[i] * k;
+        }
+    }
+
+    // Without an operator the term is a[i]; otherwise a[i] * b[i], or a[i] * k.
+    private int sum(int total, int[] a, int[] b, int k, int from, int end) {
+        if (operator == null)
+            for (int i = from; i < end; i++)
+                total += a[i];
+        else if (b != null)
+            for (int i = from; i < end; i++)
+                total += a[i] * b[i];
+        else
+            for (int i = from; i < end; i++)
+                total += a[i] * k;
+
+        return total;
+    }
+
+    private double sum(double total, int[] a, int[] b, int k, int from, int end) {
+        if (operator == null)
+            for (int i = from; i < end; i++)
+                total += a[i];
+        else if (b != null)
+            for (int i = from; i < end; i++)
+                total += a[i] * b[i];
+        else
+            for (int i = from; i < end; i++)
+                total += a[i] * k;
+
+        return total;
+    }
+
+    private double sum(double total, double[] a, double[] b, double k, int from, int end) {
+        if (operator == null)
+            for (int i = from; i < end; i++)
+                total += a[i];
+        else if (b != null)
+            for (int i = from; i < end; i++)
+                total += a[i] * b[i];
+        else
+            for (int i = from; i < end; i++)
+                total += a[i] * k;
+
+        return total;
+    }
+
+    private int count(int[] a, int[] b, int k, int from, int end) {
+        int taken = 0;
+        if (b != null)
+            for (int i = from; i < end; i++)
+                taken += holds(Integer.compare(a[i], b[i]));
+        else
+            for (int i = from; i < end; i++)
+                taken += holds(Integer.compare(a[i], k));
+
+        return taken;
+    }
+
+    private int count(double[] a, double[] b, double k, int from, int end) {
+        int taken = 0;
+        if (b != null)
+            for (int i = from; i < end; i++)
+                taken += holds(a[i], b[i]);
+        else
+            for (int i = from; i < end; i++)
+                taken += holds(a[i], k);
+
+        return taken;
+    }
+
+    // 1 when the comparison holds for operands that compare as `order`.
+    private int holds(int order) {
+        switch (operator) {
+            case LESSER:
+                return order < 0 ? 1 : 0;
+            case LESSER_EQUAL:
+                return order <= 0 ? 1 : 0;
+            case GREATER:
+                return order > 0 ? 1 : 0;
+            case GREATER_EQUAL:
+                return order >= 0 ? 1 : 0;
+            case EQUAL:
+                return order == 0 ? 1 : 0;
+            default:
+                return order != 0 ? 1 : 0;
+        }
+    }
+
+    // FLOAT equality compares the boxed values, as Interpreter.isEqual does,
+    // so NaN equals itself and 0.0 does not equal -0.0.
+    private int holds(double a, double b) {
+        switch (operator) {
+            case LESSER:
+                return a < b ? 1 : 0;
+            case LESSER_EQUAL:
+                return a <= b ? 1 : 0;
+            case GREATER:
+                return a > b ? 1 : 0;
+            case GREATER_EQUAL:
+                return a >= b ? 1 : 0;
+            case EQUAL:
+                return Double.doubleToLongBits(a) == Double.doubleToLongBits(b) ? 1 : 0;
+            default:
+                return Double.doubleToLongBits(a) != Double.doubleToLongBits(b) ? 1 : 0;
+        }
+    }
+}
@@ -1,6 +1,6 @@
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Stack;
 
 interface CharacterToIndexFunction {
@@ -17,7 +17,8 @@ public class Lexer {
     private List<Token> tokens = new ArrayList<Token>();
     private Stack<Token> codeBlock = new Stack<Token>();
     private int line = 0;
-    private int column = 0;
+    // 1-based, like the column after every newline.
+    private int column = 1;
     boolean firstInLine = true;
 
     public Lexer(CFPL cfpl) {
@@ -29,6 +30,10 @@ public class Lexer {
         return tokens;
     }
 
+    private Diagnostic error(int line, int column, String atFault, String code, String message) {
+        return cfpl.newError(Diagnostic.Phase.LEXER, code, line, column, atFault, message);
+    }
+
     public List<Token> run() throws Exception {
         int index;
         for (int i = 0; i < sourceCode.length(); i++, column++) {
@@ -78,9 +83,7 @@ public class Lexer {
                         break;
                     case '*':
                         if (firstInLine) {
-                            index = comment(i);
-                            column += index - i;
-                            i = index;
+                            i = comment(i);
                             continue;
                         }
                         tokens.add(
@@ -135,14 +138,16 @@ public class Lexer {
                             i = index;
                             break;
                         }
-                        throw cfpl.newError(line, column, Character.toString(current), "Invalid character.");
+                        throw error(line, column, Character.toString(current), "invalid-character",
+                                "Invalid character.");
                 }
                 firstInLine = false;
             }
         }
         tokens.add(new Token(TokenType.EOF, "EOF", null, line, column));
         if (!codeBlock.isEmpty())
-            throw cfpl.newError(line, column, "START", String.format("'START' is missing 'STOP'"));
+            throw error(line, column, "START", "unclosed-start", "'START' is missing 'STOP'");
+        Metrics.tokensLexed.add(tokens.size());
         return tokens;
     }
 
@@ -213,7 +218,7 @@ public class Lexer {
             tokens.add(new Token(TokenType.CHAR_LIT, Character.toString(current), current, line, column));
             current = sourceCode.charAt(++i);
             if (!Quotation.equalsSingleQuote(current))
-                throw cfpl.newError(line, column, sourceCode.substring(i - 1, i + 1), "Invalid char literal.");
+                throw error(line, column, sourceCode.substring(i - 1, i + 1), "invalid-char", "Invalid char literal.");
             return i;
         }
         ++i;
@@ -225,14 +230,14 @@ public class Lexer {
             return ++i;
         }
 
-        throw cfpl.newError(line, column, sourceCode.substring(i - 1, i + 1), "Invalid char literal.");
+        throw error(line, column, sourceCode.substring(i - 1, i + 1), "invalid-char", "Invalid char literal.");
     }
 
     private int[] evaluateDFA(
             int currentIndex,
             int initialState,
-            HashSet<Integer> finalState,
-            HashSet<Integer> deadState,
+            Set<Integer> finalState,
+            Set<Integer> deadState,
             int[][] charStateTransitionTable,
             CharacterToIndexFunction charToIndex,
             boolean terminateIfAny) {
@@ -269,16 +274,8 @@ public class Lexer {
                 { 9, 9, 9, 9, 9, 9, 9, 4, 9 }, // 8
                 { 9, 9, 9, 9, 9, 9, 9, 9, 9 }, // 9
         };
-        HashSet<Integer> finalState = new HashSet<Integer>() {
-            {
-                add(6);
-            }
-        };
-        HashSet<Integer> deadState = new HashSet<Integer>() {
-            {
-                add(9);
-            }
-        };
+        Set<Integer> finalState = Set.of(6);
+        Set<Integer> deadState = Set.of(9);
         CharacterToIndexFunction charToIndex = (character) -> {
             int translated = -1;
             switch (character) {
@@ -317,7 +314,7 @@ public class Lexer {
         };
         int[] result = evaluateDFA(++i, 0, finalState, deadState, charStateTransitionTable, charToIndex, true);
         if (result[0] == 1)
-            throw cfpl.newError(line, column, sourceCode.substring(i, result[2]), "Unclosed bool literal.");
+            throw error(line, column, sourceCode.substring(i, result[2]), "unclosed-bool", "Unclosed bool literal.");
         if (finalState.contains(result[1])) {
             String boolLexeme = sourceCode.substring(i, result[2]);
             tokens.add(new Token(TokenType.BOOL_LIT, boolLexeme, stringToBool(boolLexeme), line, column));
@@ -337,17 +334,8 @@ public class Lexer {
                 { 4, 4, 4 }, // 4
                 { 5, 5, 5 }, // 5
         };
-        HashSet<Integer> finalState = new HashSet<Integer>() {
-            {
-                add(3);
-            }
-        };
-        HashSet<Integer> deadState = new HashSet<Integer>() {
-            {
-                add(4);
-                add(5);
-            }
-        };
+        Set<Integer> finalState = Set.of(3);
+        Set<Integer> deadState = Set.of(4, 5);
         CharacterToIndexFunction charToIndex = (character) -> {
             int translated = 1;
             switch (character) {
@@ -365,9 +353,9 @@ public class Lexer {
         int[] result = evaluateDFA(i, 0, finalState, deadState, charStateTransitionTable, charToIndex, false);
         String res = sourceCode.substring(i, result[2] + 1);
         if (result[0] == 1)
-            throw cfpl.newError(line, column, res, "Unclosed string literal.");
+            throw error(line, column, res, "unclosed-string", "Unclosed string literal.");
         if (deadState.contains(result[1])) {
-            throw cfpl.newError(line, column, res, "Invalid escape.");
+            throw error(line, column, res, "invalid-escape", "Invalid escape.");
         }
         returnIndex = result[2];
         return returnIndex;
@@ -458,7 +446,8 @@ public class Lexer {
             result[2] = '\n';
         } else if (current == '\\') {
             if (sourceCode.charAt(++i) == 'n')
-                throw cfpl.newError(line, column, sourceCode.substring(i - 1, i + 1), "Invalid new line character.");
+                throw error(line, column, sourceCode.substring(i - 1, i + 1), "invalid-newline",
+                        "Invalid new line character.");
             result[2] = unescapeJavaString(String.format("\\%c", sourceCode.charAt(i))).charAt(0);
         } else {
             result[0] = -1;
@@ -492,8 +481,8 @@ public class Lexer {
                 literal += current;
         }
         if (i >= sourceCode.length()) {
-            throw cfpl.newError(result[0] == 1 ? startLine : line, result[0] == 1 ? startColumn : column,
-                    Character.toString(sourceCode.charAt(startIndex)), "Unclosed string literal.");
+            throw error(result[0] == 1 ? startLine : line, result[0] == 1 ? startColumn : column,
+                    Character.toString(sourceCode.charAt(startIndex)), "unclosed-string", "Unclosed string literal.");
         }
         tokens.add(new Token(TokenType.STR_LIT, literal, literal, line, column));
         result[2] = i;
@@ -511,18 +500,8 @@ public class Lexer {
                 { 4, 5 }, // 4
                 { 5, 5 }, // 5
         };
-        HashSet<Integer> finalState = new HashSet<Integer>() {
-            {
-                add(1);
-                add(2);
-                add(4);
-            }
-        };
-        HashSet<Integer> deadState = new HashSet<Integer>() {
-            {
-                add(5);
-            }
-        };
+        Set<Integer> finalState = Set.of(1, 2, 4);
+        Set<Integer> deadState = Set.of(5);
         CharacterToIndexFunction charToIndex = (character) -> {
             int translated = -1;
             if (Character.isDigit(character))
@@ -534,9 +513,9 @@ public class Lexer {
         int[] result = evaluateDFA(i, 0, finalState, deadState, charStateTransitionTable, charToIndex, true);
         String res = sourceCode.substring(i, result[2] + 1);
         if (result[0] == 1)
-            throw cfpl.newError(line, column, res, "Unclosed code block.");
+            throw error(line, column, res, "unclosed-block", "Unclosed code block.");
         if (deadState.contains(result[1]))
-            throw cfpl.newError(line, column, res, "Invalid number literal.");
+            throw error(line, column, res, "invalid-number", "Invalid number literal.");
         if (result[1] == 1) {
             tokens.add(new Token(TokenType.INT_LIT, res, Integer.parseInt(res), line, column));
             returnIndex = result[2];
@@ -555,16 +534,8 @@ public class Lexer {
                 { 1, 1, 1, 1 }, // 1
                 { 2, 2, 2, 2 }, // 2
         };
-        HashSet<Integer> finalState = new HashSet<Integer>() {
-            {
-                add(1);
-            }
-        };
-        HashSet<Integer> deadState = new HashSet<Integer>() {
-            {
-                add(2);
-            }
-        };
+        Set<Integer> finalState = Set.of(1);
+        Set<Integer> deadState = Set.of(2);
         CharacterToIndexFunction charToIndex = (character) -> {
             int translated = -1;
             if (character == '_')
@@ -580,7 +551,7 @@ public class Lexer {
         int[] result = evaluateDFA(i, 0, finalState, deadState, charStateTransitionTable, charToIndex, true);
         String res = sourceCode.substring(i, result[2] + 1);
         if (result[0] == 1)
-            throw cfpl.newError(line, column, res, "Invalid syntax.");
+            throw error(line, column, res, "invalid-syntax", "Invalid syntax.");
         if (finalState.contains(result[1])) {
             Token temp;
             if (Token.reservedWords.containsKey(res)) {
@@ -591,7 +562,7 @@ public class Lexer {
                         break;
                     case STOP:
                         if (codeBlock.isEmpty())
-                            throw cfpl.newError(line, column, "STOP", "'STOP' is missing 'START'");
+                            throw error(line, column, "STOP", "unopened-stop", "'STOP' is missing 'START'");
                         codeBlock.pop();
                         break;
                     default:
@@ -0,0 +1,13 @@
+// Raised when a run goes over one of its configured Limits.
+class LimitExceededException extends Diagnostic {
+    private static final long serialVersionUID = 1L;
+
+    final String limit;
+    final long value;
+
+    LimitExceededException(CFPL cfpl, String limit, long value, Token token, String format, Object... arguments) {
+        super(cfpl, Phase.LIMIT, "limit-" + limit, token, format, arguments);
+        this.limit = limit;
+        this.value = value;
+    }
+}
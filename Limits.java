@@ -0,0 +1,17 @@
+// Execution limits for a single program run. A value of 0 means unlimited.
+class Limits {
+    static final Limits NONE = new Limits();
+
+    long maxStatements = 0;
+    long maxLoopIterations = 0;
+    long maxOutputBytes = 0;
+    long timeoutMillis = 0;
+    // Soft cap on the bytes the executing thread allocates, checked every
+    // CHECK_INTERVAL loop iterations and whenever a longer string is built.
+    long maxMemoryBytes = 0;
+
+    boolean isUnlimited() {
+        return maxStatements == 0 && maxLoopIterations == 0 && maxOutputBytes == 0 && timeoutMillis == 0
+                && maxMemoryBytes == 0;
+    }
+}
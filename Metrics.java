@@ -0,0 +1,219 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+
+// Process-wide counters and latency histograms across all CFPL runs.
+//
+// Hot paths count into plain fields of their own Lexer, Parser or Interpreter
+// and add the totals here once per phase, so the LongAdders are only touched a
+// few times per run. Everything is readable through snapshot() and, once
+// registerMBean() has been called, as attributes of the "cfpl:type=Metrics"
+// MBean. JMX is only loaded on registration, which long-running modes do.
+final class Metrics {
+    static final LongAdder programsCompiled = new LongAdder();
+    static final LongAdder programsExecuted = new LongAdder();
+    static final LongAdder compileCacheHits = new LongAdder();
+    static final LongAdder compileCacheMisses = new LongAdder();
+    static final LongAdder moduleCacheHits = new LongAdder();
+    static final LongAdder moduleCacheMisses = new LongAdder();
+    static final LongAdder tokensLexed = new LongAdder();
+    static final LongAdder statementsParsed = new LongAdder();
+    static final LongAdder statementsExecuted = new LongAdder();
+    static final LongAdder loopIterations = new LongAdder();
+    static final LongAdder boxedIncurred = new LongAdder();
+    static final LongAdder boxedAvoided = new LongAdder();
+    static final LongAdder outputBytes = new LongAdder();
+    static final LongAdder inputBytes = new LongAdder();
+    static final LongAdder limitViolations = new LongAdder();
+    static final LongAdder errors = new LongAdder();
+    // Only runs that measure allocation, see Usage, are counted here.
+    static final LongAdder allocatedBytes = new LongAdder();
+    static final LongAccumulator peakStringLength = new LongAccumulator(Math::max, 0);
+    static final LongAccumulator peakLiveValues = new LongAccumulator(Math::max, 0);
+
+    static final Histogram lexNanos = new Histogram();
+    static final Histogram parseNanos = new Histogram();
+    static final Histogram executeNanos = new Histogram();
+    static final Histogram executeAllocatedBytes = new Histogram();
+
+    private static boolean registered = false;
+
+    // Log-linear histogram in the style of HdrHistogram: values are grouped by
+    // power of two, and each power of two is split into 2^SUB_BUCKET_BITS
+    // linear buckets, which bounds the relative error to about 3%. Recording
+    // is a single atomic increment.
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+        void record(long value) {
+            counts.incrementAndGet(index(Math.max(0, value)));
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int shift = magnitude - SUB_BUCKET_BITS;
+            int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+            return (shift + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long lowerBound(int index) {
+            if (index < SUB_BUCKETS)
+                return index;
+            int shift = index / SUB_BUCKETS - 1;
+
+            return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        }
+
+        long count() {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++)
+                total += counts.get(i);
+
+            return total;
+        }
+
+        long percentile(double percentile) {
+            long total = count();
+            if (total == 0)
+                return 0;
+            long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= target)
+                    return lowerBound(i);
+            }
+
+            return lowerBound(counts.length() - 1);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    static Map<String, Long> snapshot() {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        values.put("ProgramsCompiled", programsCompiled.sum());
+        values.put("ProgramsExecuted", programsExecuted.sum());
+        values.put("CompileCacheHits", compileCacheHits.sum());
+        values.put("CompileCacheMisses", compileCacheMisses.sum());
+        values.put("ModuleCacheHits", moduleCacheHits.sum());
+        values.put("ModuleCacheMisses", moduleCacheMisses.sum());
+        values.put("TokensLexed", tokensLexed.sum());
+        values.put("StatementsParsed", statementsParsed.sum());
+        values.put("StatementsExecuted", statementsExecuted.sum());
+        values.put("LoopIterations", loopIterations.sum());
+        values.put("BoxedIncurred", boxedIncurred.sum());
+        values.put("BoxedAvoided", boxedAvoided.sum());
+        values.put("OutputBytes", outputBytes.sum());
+        values.put("InputBytes", inputBytes.sum());
+        values.put("LimitViolations", limitViolations.sum());
+        values.put("Errors", errors.sum());
+        values.put("AllocatedBytes", allocatedBytes.sum());
+        values.put("PeakStringLength", peakStringLength.get());
+        values.put("PeakLiveValues", peakLiveValues.get());
+        putHistogram(values, "Lex", lexNanos);
+        putHistogram(values, "Parse", parseNanos);
+        putHistogram(values, "Execute", executeNanos);
+        values.put("ExecuteAllocationP50Bytes", executeAllocatedBytes.percentile(50));
+        values.put("ExecuteAllocationP99Bytes", executeAllocatedBytes.percentile(99));
+        values.put("ExecuteAllocationMaxBytes", executeAllocatedBytes.percentile(100));
+
+        return values;
+    }
+
+    private static void putHistogram(Map<String, Long> values, String phase, Histogram histogram) {
+        values.put(phase + "Count", histogram.count());
+        values.put(phase + "P50Micros", histogram.percentile(50) / 1000);
+        values.put(phase + "P99Micros", histogram.percentile(99) / 1000);
+        values.put(phase + "MaxMicros", histogram.percentile(100) / 1000);
+    }
+
+    static String snapshotJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+            if (json.length() > 1)
+                json.append(',');
+            json.append(Batch.json(entry.getKey())).append(':').append(entry.getValue());
+        }
+
+        return json.append('}').toString();
+    }
+
+    static synchronized void registerMBean() {
+        if (registered)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(),
+                    new ObjectName("cfpl:type=Metrics"));
+            registered = true;
+        } catch (JMException e) {
+            System.err.println(String.format("[Metrics] %s", e.getMessage()));
+        }
+    }
+
+    private static final class MBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = snapshot().get(attribute);
+            if (value == null)
+                throw new AttributeNotFoundException(attribute);
+
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(String.format("%s is read-only.", attribute.getName()));
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes)
+                if (values.containsKey(attribute))
+                    list.add(new Attribute(attribute, values.get(attribute)));
+
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            return null;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Long> values = snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (String name : values.keySet())
+                attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+
+            return new MBeanInfo(Metrics.class.getName(), "CFPL runtime metrics", attributes, null, null, null);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A file brought in by INCLUDE, which may only declare VAR, SUB and FUNCTION
+// and INCLUDE other modules.
+//
+// A module is compiled once per process and kept in a cache keyed by its path
+// and source, which every program, run and thread shares. A program that
+// includes it only merges the names it declares into its own symbol tables
+// and splices in the already parsed declarations, so a large program made of
+// modules only lexes and parses the files that have changed.
+class Module {
+    private static final int MAX_CACHED_MODULES = 1024;
+    private static final Map<String, Module> cache = new ConcurrentHashMap<String, Module>();
+    // The modules this thread is compiling, which an INCLUDE cycle runs into.
+    private static final ThreadLocal<Set<String>> loading = ThreadLocal.withInitial(HashSet::new);
+
+    final String path;
+    // The hash of the source the module was compiled from.
+    final String hash;
+    final CFPL cfpl;
+    // The modules it includes itself, and what it declares apart from them.
+    final List<Module> includes;
+    final List<ParsingStatement> declarations = new ArrayList<ParsingStatement>();
+    final Map<String, TokenType> variables = new LinkedHashMap<String, TokenType>();
+    final Set<String> arrays = new HashSet<String>();
+    final Map<String, ParsingStatement.Function> routines = new HashMap<String, ParsingStatement.Function>();
+
+    private Module(String path, String hash, CFPL cfpl) throws Exception {
+        this.path = path;
+        this.hash = hash;
+        this.cfpl = cfpl;
+        List<ParsingStatement> statements = cfpl.compile();
+        Parser parser = cfpl.parser();
+        for (ParsingStatement stmt : statements) {
+            if (stmt.token.type == TokenType.INCLUDE)
+                continue;
+            declarations.add(stmt);
+            if (stmt instanceof ParsingStatement.Var) {
+                String name = ((ParsingStatement.Var) stmt).name.lexeme;
+                variables.put(name, parser.declaredType(name));
+                if (parser.isArray(name))
+                    arrays.add(name);
+            } else if (stmt instanceof ParsingStatement.Function) {
+                ParsingStatement.Function function = (ParsingStatement.Function) stmt;
+                routines.put(function.name.lexeme, function);
+            }
+        }
+        includes = parser.modules;
+    }
+
+    // The compiled module in `file`, or null when it is already being
+    // compiled, that is when it includes itself. Throws the Diagnostic of the
+    // first error in the module.
+    static Module load(File file) throws Exception {
+        String path = file.getCanonicalPath();
+        String source = CFPL.readSource(path);
+        String key = CFPL.sha256(path + '\0' + source);
+        Module module = cache.get(key);
+        if (module != null && module.cfpl.isCurrent()) {
+            Metrics.moduleCacheHits.increment();
+            return module;
+        }
+        if (!loading.get().add(path))
+            return null;
+        try {
+            Metrics.moduleCacheMisses.increment();
+            module = new Module(path, CFPL.sha256(source), CFPL.module(source, new File(path)));
+        } finally {
+            loading.get().remove(path);
+        }
+        if (cache.size() >= MAX_CACHED_MODULES)
+            cache.clear();
+        cache.put(key, module);
+
+        return module;
+    }
+}
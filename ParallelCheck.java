@@ -0,0 +1,346 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Checks that the iterations of a PARALLEL FOR body are independent, so that
+// running them on several threads gives the result of running them in order.
+//
+// The body may read any variable, but may not OUTPUT, INPUT, call a SUB or
+// FUNCTION, BREAK out of the loop or hold another PARALLEL FOR. A reduction
+// target may only be updated as `t = t + e` or `t = t - e` for SUM,
+// `t = MIN(t, e)` or `t = MAX(t, e)`, `t = t AND e` or `t = t OR e`, with e
+// not reading t. Any other variable the body assigns is loop-local: every
+// iteration must assign it before reading it, and it keeps its value from
+// before the loop. An array element may only be assigned at the loop
+// variable, and an array that is assigned may only be read there, so no
+// iteration sees another's writes.
+class ParallelCheck implements ParsingStatement.Visitor<Void>, ParsingExpression.Visitor<Void> {
+    private final CFPL cfpl;
+    private final String index;
+    private final Map<String, Reduction> targets;
+    private final List<Diagnostic> errors = new ArrayList<Diagnostic>();
+    // Filled by the first pass: the variables and arrays the body assigns.
+    private final Set<String> written = new HashSet<String>();
+    private final Set<String> writtenArrays = new HashSet<String>();
+    private boolean collecting = true;
+    // The loop-locals assigned on every path to the current point.
+    private Set<String> assigned = new HashSet<String>();
+    // How many loops inside the body enclose the current point.
+    private int loops = 0;
+
+    private ParallelCheck(CFPL cfpl, String index, Map<String, Reduction> targets) {
+        this.cfpl = cfpl;
+        this.index = index;
+        this.targets = targets;
+    }
+
+    static List<Diagnostic> check(CFPL cfpl, ParsingStatement.For loop, Map<String, Reduction> targets)
+            throws Exception {
+        ParallelCheck check = new ParallelCheck(cfpl, loop.variable.name.lexeme, targets);
+        loop.body.visit(check);
+        check.collecting = false;
+        check.assigned = new HashSet<String>();
+        loop.body.visit(check);
+
+        return check.errors;
+    }
+
+    private void error(Token token, String code, String format, Object... arguments) {
+        if (!collecting)
+            errors.add(cfpl.newError(Diagnostic.Phase.PARSER, code, token, format, arguments));
+    }
+
+    private boolean isIndex(ParsingExpression expr) {
+        return expr instanceof ParsingExpression.Variable
+                && ((ParsingExpression.Variable) expr).name.lexeme.equals(index);
+    }
+
+    private static boolean isVariable(ParsingExpression expr, String name) {
+        return expr instanceof ParsingExpression.Variable
+                && ((ParsingExpression.Variable) expr).name.lexeme.equals(name);
+    }
+
+    // The operand of a reduction update `name = value` other than `name`
+    // itself, or null when `value` does not have the form `reduction` needs.
+    private static ParsingExpression operand(String name, Reduction reduction, ParsingExpression value) {
+        switch (reduction) {
+            case SUM:
+                if (!(value instanceof ParsingExpression.Binary))
+                    return null;
+                ParsingExpression.Binary binary = (ParsingExpression.Binary) value;
+                if (binary.operator.type == TokenType.ADDITION && isVariable(binary.right, name))
+                    return binary.left;
+                if ((binary.operator.type == TokenType.ADDITION || binary.operator.type == TokenType.SUBTRACTION)
+                        && isVariable(binary.left, name))
+                    return binary.right;
+                return null;
+            case MIN:
+            case MAX:
+                if (!(value instanceof ParsingExpression.Builtin))
+                    return null;
+                ParsingExpression.Builtin builtin = (ParsingExpression.Builtin) value;
+                if (!builtin.intrinsic.name().equals(reduction.name()))
+                    return null;
+                if (isVariable(builtin.arguments[0], name))
+                    return builtin.arguments[1];
+                return isVariable(builtin.arguments[1], name) ? builtin.arguments[0] : null;
+            default:
+                if (!(value instanceof ParsingExpression.Logical))
+                    return null;
+                ParsingExpression.Logical logical = (ParsingExpression.Logical) value;
+                if (!logical.operator.type.name().equals(reduction.name()))
+                    return null;
+                if (isVariable(logical.left, name))
+                    return logical.right;
+                return isVariable(logical.right, name) ? logical.left : null;
+        }
+    }
+
+    private void write(Token name) {
+        written.add(name.lexeme);
+        assigned.add(name.lexeme);
+    }
+
+    @Override
+    public Void block(ParsingStatement.Block stmt) throws Exception {
+        for (ParsingStatement statement : stmt.statements)
+            statement.visit(this);
+
+        return null;
+    }
+
+    @Override
+    public Void expression(ParsingStatement.Expression stmt) throws Exception {
+        return stmt.expression.visit(this);
+    }
+
+    @Override
+    public Void ifS(ParsingStatement.If stmt) throws Exception {
+        stmt.condition.visit(this);
+        Set<String> before = assigned;
+        assigned = new HashSet<String>(before);
+        stmt.thenBranch.visit(this);
+        Set<String> then = assigned;
+        assigned = new HashSet<String>(before);
+        if (stmt.elseBranch != null)
+            stmt.elseBranch.visit(this);
+        assigned.retainAll(then);
+
+        return null;
+    }
+
+    @Override
+    public Void print(ParsingStatement.Print stmt) throws Exception {
+        error(stmt.token, "parallel-io", "%s is not allowed in a PARALLEL FOR body.", stmt.token.lexeme);
+
+        return stmt.expression.visit(this);
+    }
+
+    @Override
+    public Void input(ParsingStatement.Input stmt) {
+        error(stmt.token, "parallel-io", "%s is not allowed in a PARALLEL FOR body.", stmt.token.lexeme);
+
+        return null;
+    }
+
+    @Override
+    public Void var(ParsingStatement.Var stmt) throws Exception {
+        if (stmt.initializer != null)
+            stmt.initializer.visit(this);
+
+        return null;
+    }
+
+    // What a loop body assigns does not count after it, as it may not run.
+    @Override
+    public Void whileS(ParsingStatement.While stmt) throws Exception {
+        stmt.condition.visit(this);
+        Set<String> before = new HashSet<String>(assigned);
+        loops++;
+        stmt.body.visit(this);
+        loops--;
+        assigned = before;
+
+        return null;
+    }
+
+    @Override
+    public Void forS(ParsingStatement.For stmt) throws Exception {
+        stmt.start.visit(this);
+        stmt.end.visit(this);
+        if (stmt.step != null)
+            stmt.step.visit(this);
+        Token variable = stmt.variable.name;
+        if (targets.containsKey(variable.lexeme))
+            error(variable, "parallel-reduction", "Reduction target '%s' cannot be a loop variable.",
+                    variable.lexeme);
+        write(variable);
+        Set<String> before = new HashSet<String>(assigned);
+        loops++;
+        stmt.body.visit(this);
+        loops--;
+        assigned = before;
+
+        return null;
+    }
+
+    @Override
+    public Void parallelFor(ParsingStatement.ParallelFor stmt) throws Exception {
+        error(stmt.token, "parallel-nested", "PARALLEL FOR cannot be nested.");
+
+        return forS(stmt.loop);
+    }
+
+    @Override
+    public Void vectorized(ParsingStatement.Vectorized stmt) throws Exception {
+        return stmt.loop.visit(this);
+    }
+
+    @Override
+    public Void function(ParsingStatement.Function stmt) {
+        return null;
+    }
+
+    @Override
+    public Void returnS(ParsingStatement.Return stmt) {
+        error(stmt.token, "parallel-jump", "RETURN is not allowed in a PARALLEL FOR body.");
+
+        return null;
+    }
+
+    @Override
+    public Void jump(ParsingStatement.Jump stmt) {
+        if (stmt.exits && loops == 0)
+            error(stmt.token, "parallel-jump", "BREAK cannot leave a PARALLEL FOR.");
+
+        return null;
+    }
+
+    @Override
+    public Void caseS(ParsingStatement.Case stmt) throws Exception {
+        stmt.selector.visit(this);
+        Set<String> before = assigned;
+        Set<String> common = null;
+        List<ParsingStatement> branches = new ArrayList<ParsingStatement>();
+        for (ParsingStatement branch : stmt.branches)
+            branches.add(branch);
+        branches.add(stmt.elseBranch);
+        for (ParsingStatement branch : branches) {
+            assigned = new HashSet<String>(before);
+            if (branch != null)
+                branch.visit(this);
+            if (common == null)
+                common = assigned;
+            else
+                common.retainAll(assigned);
+        }
+        assigned = common;
+
+        return null;
+    }
+
+    @Override
+    public Void assign(ParsingExpression.Assign expr) throws Exception {
+        Reduction reduction = targets.get(expr.name.lexeme);
+        if (reduction != null) {
+            ParsingExpression operand = operand(expr.name.lexeme, reduction, expr.value);
+            if (operand == null)
+                error(expr.name, "parallel-reduction", "%s target '%s' can only be updated by %s.",
+                        reduction, expr.name.lexeme, reduction == Reduction.SUM ? "adding to it"
+                                : reduction == Reduction.MIN || reduction == Reduction.MAX
+                                        ? String.format("%s(%s, ...)", reduction, expr.name.lexeme)
+                                        : String.format("%s %s ...", expr.name.lexeme, reduction));
+            else
+                operand.visit(this);
+            written.add(expr.name.lexeme);
+            return null;
+        }
+        expr.value.visit(this);
+        write(expr.name);
+
+        return null;
+    }
+
+    @Override
+    public Void binary(ParsingExpression.Binary expr) throws Exception {
+        expr.left.visit(this);
+        return expr.right.visit(this);
+    }
+
+    @Override
+    public Void grouping(ParsingExpression.Grouping expr) throws Exception {
+        return expr.expression.visit(this);
+    }
+
+    @Override
+    public Void literal(ParsingExpression.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void logical(ParsingExpression.Logical expr) throws Exception {
+        expr.left.visit(this);
+        return expr.right.visit(this);
+    }
+
+    @Override
+    public Void unary(ParsingExpression.Unary expr) throws Exception {
+        return expr.right.visit(this);
+    }
+
+    @Override
+    public Void variable(ParsingExpression.Variable expr) {
+        String name = expr.name.lexeme;
+        if (targets.containsKey(name))
+            error(expr.name, "parallel-reduction", "Reduction target '%s' cannot be read in a PARALLEL FOR body.",
+                    name);
+        else if (written.contains(name) && !assigned.contains(name))
+            error(expr.name, "parallel-shared", "'%s' is read before it is assigned in a PARALLEL FOR body.", name);
+
+        return null;
+    }
+
+    @Override
+    public Void allocate(ParsingExpression.Allocate expr) throws Exception {
+        return expr.length.visit(this);
+    }
+
+    @Override
+    public Void index(ParsingExpression.Index expr) throws Exception {
+        if (writtenArrays.contains(expr.name.lexeme) && !isIndex(expr.index))
+            error(expr.bracket, "parallel-array", "Array '%s' is assigned in a PARALLEL FOR body, so it can only be "
+                    + "read at index '%s'.", expr.name.lexeme, index);
+
+        return expr.index.visit(this);
+    }
+
+    @Override
+    public Void setIndex(ParsingExpression.SetIndex expr) throws Exception {
+        writtenArrays.add(expr.name.lexeme);
+        if (!isIndex(expr.index))
+            error(expr.bracket, "parallel-array", "Array '%s' can only be assigned at index '%s' in a PARALLEL FOR "
+                    + "body.", expr.name.lexeme, index);
+        expr.index.visit(this);
+
+        return expr.value.visit(this);
+    }
+
+    @Override
+    public Void call(ParsingExpression.Call expr) throws Exception {
+        error(expr.name, "parallel-call", "'%s' cannot be called in a PARALLEL FOR body.", expr.name.lexeme);
+        for (ParsingExpression argument : expr.arguments)
+            argument.visit(this);
+
+        return null;
+    }
+
+    @Override
+    public Void builtin(ParsingExpression.Builtin expr) throws Exception {
+        for (ParsingExpression argument : expr.arguments)
+            argument.visit(this);
+
+        return null;
+    }
+}
@@ -1,7 +1,12 @@
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class Parser {
     boolean varDeclarations = true;
@@ -14,9 +19,44 @@ public class Parser {
     private int current = 0;
     List<ParsingStatement> statements = new ArrayList<>();
     private final Map<String, TokenType> variablesType = new HashMap<String, TokenType>();
+    // Array variables; variablesType holds their element type.
+    private final Set<String> arrays = new HashSet<String>();
+    // How often each variable has been read and written so far, and how many
+    // SUB and FUNCTION calls there have been, which tells parseFor what its body
+    // does with the loop variable.
+    private final Map<String, Integer> reads = new HashMap<String, Integer>();
+    private final Map<String, Integer> writes = new HashMap<String, Integer>();
+    private int calls = 0;
+    private final Map<String, ParsingStatement.Function> routines = new HashMap<String, ParsingStatement.Function>();
+    // While a SUB or FUNCTION is parsed: the function once its header is
+    // known, and the frame slot and type of each of its parameters and locals.
+    private ParsingStatement.Function routine;
+    private Map<String, Integer> locals;
+    private List<TokenType> slotTypes;
+    // How many loop bodies enclose the statement being parsed.
+    private int loops = 0;
+    // The modules this file includes itself, and the paths of every module
+    // merged so far, so that one included twice is declared once.
+    final List<Module> modules = new ArrayList<Module>();
+    private final Set<String> included = new HashSet<String>();
+    // Set in recovering mode only.
+    final List<Diagnostic> diagnostics;
+    private final int maxErrors;
+    private boolean capped = false;
 
     public Parser(CFPL cfpl) {
         this.cfpl = cfpl;
+        this.diagnostics = null;
+        this.maxErrors = 0;
+    }
+
+    // Recovering mode: instead of stopping at the first error, parse() records
+    // up to maxErrors diagnostics, skipping to the next line after a syntax
+    // error. The statements it returns are not meant to be run.
+    Parser(CFPL cfpl, int maxErrors) {
+        this.cfpl = cfpl;
+        this.diagnostics = new ArrayList<Diagnostic>();
+        this.maxErrors = Math.max(1, maxErrors);
     }
 
     private ParsingExpression.Literal getDefaultLiteral(TokenType type) {
@@ -43,8 +83,57 @@ public class Parser {
 
     List<ParsingStatement> parse(List<Token> tokens) throws Exception {
         this.tokens = tokens;
-        while (!isAtEnd())
-            statements.add(parseDeclaration());
+        try {
+            while (!isAtEnd()) {
+                int start = current;
+                try {
+                    statements.add(parseDeclaration());
+                } catch (Diagnostic e) {
+                    recover(e, start, false);
+                }
+            }
+        } catch (Diagnostic e) {
+            if (!capped)
+                throw e;
+        }
+        Metrics.statementsParsed.add(statements.size());
+
+        return statements;
+    }
+
+    // Parses one input of the REPL, which `cfpl` holds, against what the
+    // inputs before it declared. VAR, SUB, FUNCTION and INCLUDE are accepted
+    // at any time and other statements as if inside the program's block. A
+    // failed input leaves the declarations as they were.
+    List<ParsingStatement> parseInput(CFPL cfpl, List<Token> tokens) throws Exception {
+        Map<String, TokenType> types = new HashMap<String, TokenType>(variablesType);
+        Set<String> arrayNames = new HashSet<String>(arrays);
+        Map<String, ParsingStatement.Function> declared = new HashMap<String, ParsingStatement.Function>(routines);
+        Set<String> merged = new HashSet<String>(included);
+        this.cfpl = cfpl;
+        this.tokens = tokens;
+        current = 0;
+        statements = new ArrayList<ParsingStatement>();
+        try {
+            while (!isAtEnd()) {
+                varDeclarations = compareCurrent(TokenType.VAR) || compareCurrent(TokenType.SUB)
+                        || compareCurrent(TokenType.FUNCTION) || compareCurrent(TokenType.INCLUDE);
+                inScope = !varDeclarations;
+                inControlStructure = false;
+                statements.add(parseDeclaration());
+            }
+        } catch (Exception e) {
+            variablesType.clear();
+            variablesType.putAll(types);
+            arrays.clear();
+            arrays.addAll(arrayNames);
+            routines.clear();
+            routines.putAll(declared);
+            included.clear();
+            included.addAll(merged);
+            throw e;
+        }
+        Metrics.statementsParsed.add(statements.size());
 
         return statements;
     }
@@ -52,22 +141,88 @@ public class Parser {
     private ParsingStatement parseDeclaration() throws Exception {
         if (compareMultipleThenNext(TokenType.VAR))
             return parseVariableDeclaration();
+        if (compareMultipleThenNext(TokenType.SUB, TokenType.FUNCTION))
+            return parseRoutine();
+        if (compareMultipleThenNext(TokenType.INCLUDE))
+            return parseInclude();
+        if (cfpl.name() != null && locals == null)
+            throw error(getCurrent(), "module-statement", "A module can only declare VAR, SUB, FUNCTION and INCLUDE.");
 
         return parseStatement();
     }
 
+    // The declarations of the module and of the modules it includes that are
+    // not part of the program yet, as a block.
+    private ParsingStatement parseInclude() throws Exception {
+        Token keyword = getPrevious();
+        if (locals != null)
+            throw error(keyword, "misplaced-declaration", "Misplaced INCLUDE declaration.");
+        if (!varDeclarations)
+            report(error(keyword, "misplaced-declaration", "Misplaced INCLUDE declaration."));
+        Token name = expectThenNext(TokenType.STR_LIT, "Expected module file name.");
+        expectThenNext(TokenType.EOL, "Expected new line after INCLUDE.");
+        File file = cfpl.resolve((String) name.literal);
+        if (file == null)
+            throw error(name, "module-not-found", "Module '%s' must be an absolute path here.", name.literal);
+        Module module;
+        try {
+            module = Module.load(file);
+        } catch (IOException e) {
+            throw error(name, "module-not-found", "Cannot read module '%s'.", name.literal);
+        } catch (Diagnostic e) {
+            throw error(name, "module-error", "Module '%s', line %d: %s", name.literal, e.line + 1, e.summary());
+        }
+        if (module == null)
+            throw error(name, "include-cycle", "Module '%s' includes itself.", name.literal);
+        modules.add(module);
+        List<ParsingStatement> declarations = new ArrayList<ParsingStatement>();
+        merge(module, name, declarations);
+
+        return new ParsingStatement.Block(declarations, keyword);
+    }
+
+    private void merge(Module module, Token name, List<ParsingStatement> declarations) throws Diagnostic {
+        if (!included.add(module.path))
+            return;
+        for (Module include : module.includes)
+            merge(include, name, declarations);
+        for (Map.Entry<String, TokenType> variable : module.variables.entrySet())
+            if (variablesType.containsKey(variable.getKey()) || routines.containsKey(variable.getKey()))
+                report(error(name, "duplicate-variable", "Name '%s' of module '%s' is already declared.",
+                        variable.getKey(), name.literal));
+            else
+                variablesType.put(variable.getKey(), variable.getValue());
+        arrays.addAll(module.arrays);
+        for (Map.Entry<String, ParsingStatement.Function> routine : module.routines.entrySet())
+            if (variablesType.containsKey(routine.getKey()) || routines.containsKey(routine.getKey()))
+                report(error(name, "duplicate-variable", "Name '%s' of module '%s' is already declared.",
+                        routine.getKey(), name.literal));
+            else
+                routines.put(routine.getKey(), routine.getValue());
+        declarations.addAll(module.declarations);
+        cfpl.includes.put(module.path, module.hash);
+    }
+
+    TokenType declaredType(String name) {
+        return variablesType.get(name);
+    }
+
+    boolean isArray(String name) {
+        return arrays.contains(name);
+    }
+
     private ParsingStatement parseVariableDeclaration() throws Exception {
         if (!isDeclaring)
             isDeclaring = true;
         if (!varDeclarations)
-            throw cfpl.newError(getPrevious(), "Misplaced variable declaration.");
+            report(error(getPrevious(), "misplaced-declaration", "Misplaced variable declaration."));
         Token name;
         if (compareCurrent(TokenType.IDENTIFIER))
             name = expectThenNext(TokenType.IDENTIFIER, "Expected variable name.");
         else if (Token.reservedWords.containsKey(getCurrent().lexeme))
-            throw cfpl.newError(getCurrent(), "Expected valid variable name but got reserved keyword.");
+            throw error(getCurrent(), "reserved-name", "Expected valid variable name but got reserved keyword.");
         else
-            throw cfpl.newError(getCurrent(), "Expected valid variable name.");
+            throw error(getCurrent(), "invalid-name", "Expected valid variable name.");
         TokenType type;
 
         int tempCurrent = current;
@@ -76,11 +231,13 @@ public class Parser {
         if (compareMultipleThenNext(TokenType.BOOL, TokenType.CHAR, TokenType.FLOAT, TokenType.INT))
             type = getPrevious().type;
         else
-            throw cfpl.newError(name, "Expected declaration variable data type.");
+            throw error(name, "missing-type", "Expected declaration variable data type.");
         current = tempCurrent;
 
         ParsingExpression initializer = null;
-        if (compareMultipleThenNext(TokenType.ASSIGNMENT)) {
+        if (compareMultipleThenNext(TokenType.LEFT_BRACE))
+            initializer = parseArrayDeclarator(name, type);
+        else if (compareMultipleThenNext(TokenType.ASSIGNMENT)) {
             initializer = parseExpression();
             if (initializer instanceof ParsingExpression.Literal) {
                 ParsingExpression.Literal initial = (ParsingExpression.Literal) initializer;
@@ -88,17 +245,13 @@ public class Parser {
                     double x = Double.parseDouble(initial.value.toString());
                     initializer = new ParsingExpression.Literal(x);
                 } else if (!Token.checkType(initial.value, type))
-                    throw cfpl.newError(name, String.format("Expected '%s' type.", type));
+                    report(error(name, "type-mismatch", "Expected '%s' type.", type));
             }
         } else
             initializer = getDefaultLiteral(type);
 
         ParsingStatement.Var returnVar = new ParsingStatement.Var(name, initializer);
-
-        if (!variablesType.containsKey(name.lexeme))
-            variablesType.put(name.lexeme, type);
-        else
-            throw cfpl.newError(name, String.format("Variable name '%s' is already declared.", name.lexeme));
+        declare(name, type);
 
         boolean manyDeclaration = false;
         while (compareMultipleThenNext(TokenType.COMMA)) {
@@ -108,7 +261,9 @@ public class Parser {
             }
             name = expectThenNext(TokenType.IDENTIFIER, "Expected variable name.");
             initializer = null;
-            if (compareMultipleThenNext(TokenType.ASSIGNMENT)) {
+            if (compareMultipleThenNext(TokenType.LEFT_BRACE))
+                initializer = parseArrayDeclarator(name, type);
+            else if (compareMultipleThenNext(TokenType.ASSIGNMENT)) {
                 initializer = parseExpression();
                 if (initializer instanceof ParsingExpression.Literal) {
                     ParsingExpression.Literal initial = (ParsingExpression.Literal) initializer;
@@ -116,20 +271,17 @@ public class Parser {
                         double x = Double.parseDouble(initial.value.toString());
                         initializer = new ParsingExpression.Literal(x);
                     } else if (!Token.checkType(initial.value, type))
-                        throw cfpl.newError(name, String.format("Expected '%s' type.", type));
+                        report(error(name, "type-mismatch", "Expected '%s' type.", type));
                 }
             } else
                 initializer = getDefaultLiteral(type);
-            if (!variablesType.containsKey(name.lexeme))
-                variablesType.put(name.lexeme, type);
-            else
-                throw cfpl.newError(name, String.format("Variable name '%s' is already declared.", name.lexeme));
+            declare(name, type);
             statements.add(new ParsingStatement.Var(name, initializer));
         }
 
         if (expectThenNext(TokenType.AS, "Expected declaration variable data type.") != null
                 && !compareMultipleThenNext(TokenType.BOOL, TokenType.CHAR, TokenType.FLOAT, TokenType.INT))
-            throw cfpl.newError(name, "Expected declaration variable data type.");
+            throw error(name, "missing-type", "Expected declaration variable data type.");
         expectThenNext(TokenType.EOL, "Expected new line after declaration.");
         if (isDeclaring)
             isDeclaring = false;
@@ -140,11 +292,173 @@ public class Parser {
         return returnVar;
     }
 
+    private void declare(Token name, TokenType type) throws Diagnostic {
+        if (variablesType.containsKey(name.lexeme) || routines.containsKey(name.lexeme)) {
+            report(error(name, "duplicate-variable", "Variable name '%s' is already declared.", name.lexeme));
+            return;
+        }
+        variablesType.put(name.lexeme, type);
+        if (locals != null) {
+            locals.put(name.lexeme, slotTypes.size());
+            slotTypes.add(type);
+        }
+    }
+
+    // A reference to `name`, resolved to its frame slot inside a SUB or
+    // FUNCTION when it is one of its parameters or locals.
+    private ParsingExpression.Variable variable(Token name) {
+        Integer slot = locals == null ? null : locals.get(name.lexeme);
+        if (slot == null)
+            return new ParsingExpression.Variable(name);
+
+        return new ParsingExpression.Variable(name, slot, slotTypes.get(slot));
+    }
+
+    // Parameters and locals shadow globals of the same name. Globals declared
+    // before the routine are visible in its body, and so are the routines
+    // declared before it and the routine itself.
+    private ParsingStatement parseRoutine() throws Exception {
+        Token keyword = getPrevious();
+        if (locals != null)
+            throw error(keyword, "misplaced-declaration", "Misplaced %s declaration.", keyword.lexeme);
+        if (!varDeclarations)
+            report(error(keyword, "misplaced-declaration", "Misplaced %s declaration.", keyword.lexeme));
+        Token name = expectThenNext(TokenType.IDENTIFIER, String.format("Expected %s name.", keyword.lexeme));
+        if (routines.containsKey(name.lexeme) || variablesType.containsKey(name.lexeme))
+            report(error(name, "duplicate-variable", "Name '%s' is already declared.", name.lexeme));
+        Map<String, TokenType> globals = new HashMap<String, TokenType>(variablesType);
+        Set<String> globalArrays = new HashSet<String>(arrays);
+        List<ParsingStatement> outer = statements;
+        boolean declarations = varDeclarations;
+        variablesType.clear();
+        locals = new HashMap<String, Integer>();
+        slotTypes = new ArrayList<TokenType>();
+        try {
+            List<Token> parameters = new ArrayList<Token>();
+            expectThenNext(TokenType.LEFT_PARENTHESIS, String.format("Expected '(' after %s name.", keyword.lexeme));
+            if (!compareCurrent(TokenType.RIGHT_PARENTHESIS))
+                do {
+                    Token parameter = expectThenNext(TokenType.IDENTIFIER, "Expected parameter name.");
+                    expectThenNext(TokenType.AS, "Expected parameter data type.");
+                    declare(parameter, parseType());
+                    parameters.add(parameter);
+                } while (compareMultipleThenNext(TokenType.COMMA));
+            expectThenNext(TokenType.RIGHT_PARENTHESIS, "Expected ')' after parameters.");
+            TokenType type = null;
+            if (keyword.type == TokenType.FUNCTION) {
+                expectThenNext(TokenType.AS, "Expected FUNCTION return data type.");
+                type = parseType();
+            }
+            expectThenNext(TokenType.EOL, String.format("Expected new line after %s header.", keyword.lexeme));
+
+            // locals become assignments to their slots at the top of the body
+            statements = new ArrayList<ParsingStatement>();
+            while (compareMultipleThenNext(TokenType.VAR))
+                statements.add(parseVariableDeclaration());
+            List<ParsingStatement> body = new ArrayList<ParsingStatement>();
+            for (ParsingStatement stmt : statements) {
+                ParsingStatement.Var var = (ParsingStatement.Var) stmt;
+                Integer slot = locals.get(var.name.lexeme);
+                if (var.initializer instanceof ParsingExpression.Allocate)
+                    report(error(var.name, "local-array", "Array '%s' must be declared outside of %s '%s'.",
+                            var.name.lexeme, keyword.lexeme, name.lexeme));
+                else if (slot != null)
+                    body.add(new ParsingStatement.Expression(
+                            new ParsingExpression.Assign(var.name, var.initializer, slotTypes.get(slot), slot),
+                            var.name));
+            }
+            statements = outer;
+
+            String[] names = new String[slotTypes.size()];
+            for (Map.Entry<String, Integer> local : locals.entrySet())
+                names[local.getValue()] = local.getKey();
+            routine = new ParsingStatement.Function(name, parameters.toArray(new Token[0]), names,
+                    slotTypes.toArray(new TokenType[0]), type);
+            routines.putIfAbsent(name.lexeme, routine);
+            for (Map.Entry<String, TokenType> global : globals.entrySet())
+                variablesType.putIfAbsent(global.getKey(), global.getValue());
+            arrays.retainAll(globalArrays);
+            arrays.removeAll(locals.keySet());
+            expectTokenAndEOL(TokenType.START, "Expected 'START' before code block.");
+            varDeclarations = false;
+            inScope = true;
+            inControlStructure = true;
+            ParsingStatement block = parseStatement();
+            body.addAll(((ParsingStatement.Block) block).statements);
+            routine.body = new ParsingStatement.Block(body, block.token);
+            if (type == null)
+                routine.body = tailCall(routine.body);
+
+            return routine;
+        } finally {
+            statements = outer;
+            variablesType.clear();
+            variablesType.putAll(globals);
+            arrays.clear();
+            arrays.addAll(globalArrays);
+            routine = null;
+            locals = null;
+            slotTypes = null;
+            varDeclarations = declarations;
+            inScope = false;
+            inControlStructure = false;
+        }
+    }
+
+    // A self call that is the last thing a SUB does becomes a jump, like
+    // RETURN of a self call in a FUNCTION.
+    private ParsingStatement tailCall(ParsingStatement stmt) {
+        if (stmt instanceof ParsingStatement.Block) {
+            List<ParsingStatement> statements = new ArrayList<ParsingStatement>(
+                    ((ParsingStatement.Block) stmt).statements);
+            if (!statements.isEmpty())
+                statements.set(statements.size() - 1, tailCall(statements.get(statements.size() - 1)));
+            return new ParsingStatement.Block(statements, stmt.token);
+        }
+        if (stmt instanceof ParsingStatement.If) {
+            ParsingStatement.If branch = (ParsingStatement.If) stmt;
+            return new ParsingStatement.If(branch.condition, tailCall(branch.thenBranch),
+                    branch.elseBranch == null ? null : tailCall(branch.elseBranch), branch.token);
+        }
+        if (stmt instanceof ParsingStatement.Expression
+                && ((ParsingStatement.Expression) stmt).expression instanceof ParsingExpression.Call) {
+            ParsingExpression.Call call = (ParsingExpression.Call) ((ParsingStatement.Expression) stmt).expression;
+            if (call.function == routine)
+                return new ParsingStatement.Return(null, call.arguments, routine, stmt.token);
+        }
+
+        return stmt;
+    }
+
+    private TokenType parseType() throws Exception {
+        if (compareMultipleThenNext(TokenType.BOOL, TokenType.CHAR, TokenType.FLOAT, TokenType.INT))
+            return getPrevious().type;
+
+        throw error(getCurrent(), "missing-type", "Expected data type.");
+    }
+
+    private ParsingExpression parseArrayDeclarator(Token name, TokenType type) throws Exception {
+        Token bracket = getPrevious();
+        ParsingExpression length = parseExpression();
+        expectThenNext(TokenType.RIGHT_BRACE, "Expected ']' after array length.");
+        if (length instanceof ParsingExpression.Literal
+                && !Token.checkType(((ParsingExpression.Literal) length).value, TokenType.INT))
+            report(error(bracket, "type-mismatch", "Expected array length as '%s'.", TokenType.INT));
+        if (compareCurrent(TokenType.ASSIGNMENT))
+            throw error(getCurrent(), "array-initializer", "Array '%s' cannot have an initializer.", name.lexeme);
+        if (!variablesType.containsKey(name.lexeme))
+            arrays.add(name.lexeme);
+
+        return new ParsingExpression.Allocate(type, length, bracket);
+    }
+
     private ParsingStatement parseStatement() throws Exception {
-        if (compareMultipleThenNext(TokenType.START))
-            return new ParsingStatement.Block(parseBlock());
+        if (compareMultipleThenNext(TokenType.START)) {
+            Token start = getPrevious();
+            return new ParsingStatement.Block(parseBlock(), start);
+        }
         if (!inScope)
-            throw cfpl.newError(getCurrent(), "Statement is out of scope.");
+            report(error(getCurrent(), "out-of-scope", "Statement is out of scope."));
         if (compareMultipleThenNext(TokenType.IF))
             return parseIf();
         if (compareMultipleThenNext(TokenType.OUTPUT))
@@ -153,17 +467,39 @@ public class Parser {
             return parseInput();
         if (compareMultipleThenNext(TokenType.WHILE))
             return parseWhile();
+        if (compareMultipleThenNext(TokenType.FOR))
+            return parseFor(null);
+        if (compareMultipleThenNext(TokenType.PARALLEL)) {
+            Token parallel = getPrevious();
+            expectThenNext(TokenType.FOR, "Expected 'FOR' after 'PARALLEL'.");
+            return parseFor(parallel);
+        }
+        if (compareMultipleThenNext(TokenType.RETURN))
+            return parseReturn();
+        if (compareMultipleThenNext(TokenType.BREAK, TokenType.CONTINUE))
+            return parseJump();
+        if (compareMultipleThenNext(TokenType.CASE))
+            return parseCase();
 
         return parseExpressionStatement();
     }
 
     private ParsingStatement parseExpressionStatement() throws Exception {
         if (!inScope && !isDeclaring)
-            throw cfpl.newError(getCurrent(), "Out of scope expression is only allowed in variable declaration.");
-        ParsingExpression expr = parseExpression();
+            report(error(getCurrent(), "out-of-scope",
+                    "Out of scope expression is only allowed in variable declaration."));
+        Token first = getCurrent();
+        ParsingExpression expr;
+        // a SUB can only be called as a statement of its own
+        if (compareCurrent(TokenType.IDENTIFIER) && tokens.get(current + 1).type == TokenType.LEFT_PARENTHESIS
+                && routines.containsKey(first.lexeme)) {
+            current += 2;
+            expr = parseCall(first, true);
+        } else
+            expr = parseExpression();
         expectThenNext(TokenType.EOL, "Expected new line after expression.");
 
-        return new ParsingStatement.Expression(expr);
+        return new ParsingStatement.Expression(expr, first);
     }
 
     private ParsingExpression parseExpression() throws Exception {
@@ -176,18 +512,28 @@ public class Parser {
             Token equals = getPrevious();
             ParsingExpression value = parseAssignment();
             if (expr instanceof ParsingExpression.Variable) {
-                Token name = ((ParsingExpression.Variable) expr).name;
+                ParsingExpression.Variable target = (ParsingExpression.Variable) expr;
+                Token name = target.name;
                 TokenType type;
                 type = variablesType.get(name.lexeme);
-                if (value instanceof ParsingExpression.Literal
+                writes.merge(name.lexeme, 1, Integer::sum);
+                if (type != null && value instanceof ParsingExpression.Literal
+                        && !Token.checkType(((ParsingExpression.Literal) value).value, type))
+                    report(error(name, "type-mismatch", "Expected '%s' type.", type));
+                return new ParsingExpression.Assign(name, value, type, target.slot);
+            }
+            if (expr instanceof ParsingExpression.Index) {
+                ParsingExpression.Index target = (ParsingExpression.Index) expr;
+                TokenType type = variablesType.get(target.name.lexeme);
+                if (type != null && value instanceof ParsingExpression.Literal
                         && !Token.checkType(((ParsingExpression.Literal) value).value, type))
-                    throw cfpl.newError(name, String.format("Expected '%s' type.", type));
-                return new ParsingExpression.Assign(name, value, type);
+                    report(error(target.name, "type-mismatch", "Expected '%s' type.", type));
+                return new ParsingExpression.SetIndex(target.name, target.index, value, type, target.bracket, true);
             }
-            throw cfpl.newError(equals, "Invalid assignment target.");
+            throw error(equals, "invalid-assignment", "Invalid assignment target.");
         } else if (compareMultipleThenNext(TokenType.BOOL_LIT, TokenType.CHAR_LIT, TokenType.FLOAT_LIT,
                 TokenType.INT_LIT, TokenType.STR_LIT, TokenType.IDENTIFIER)) {
-            throw cfpl.newError(getPrevious(), "Missing expression operator.");
+            throw error(getPrevious(), "missing-operator", "Missing expression operator.");
         }
 
         return expr;
@@ -290,9 +636,25 @@ public class Parser {
                 TokenType.STR_LIT))
             return new ParsingExpression.Literal(getPrevious().literal);
         if (compareMultipleThenNext(TokenType.IDENTIFIER)) {
-            if (!varDeclarations && !variablesType.containsKey(getPrevious().lexeme))
-                throw cfpl.newError(getPrevious(), String.format("Undefined variable '%s'.", getPrevious().lexeme));
-            return new ParsingExpression.Variable(getPrevious());
+            Token name = getPrevious();
+            if (compareCurrent(TokenType.LEFT_PARENTHESIS) && !variablesType.containsKey(name.lexeme)) {
+                next();
+                return parseCall(name, false);
+            }
+            if (!varDeclarations && !variablesType.containsKey(name.lexeme))
+                report(error(name, "undefined-variable", "Undefined variable '%s'.", name.lexeme));
+            reads.merge(name.lexeme, 1, Integer::sum);
+            if (compareMultipleThenNext(TokenType.LEFT_BRACE)) {
+                Token bracket = getPrevious();
+                if (variablesType.containsKey(name.lexeme) && !arrays.contains(name.lexeme))
+                    report(error(name, "not-an-array", "Variable '%s' is not an array.", name.lexeme));
+                ParsingExpression index = parseExpression();
+                expectThenNext(TokenType.RIGHT_BRACE, "Expected ']' after index.");
+                return new ParsingExpression.Index(name, index, bracket, true);
+            }
+            if (arrays.contains(name.lexeme))
+                report(error(name, "missing-index", "Array '%s' is used without an index.", name.lexeme));
+            return variable(name);
         }
         if (compareMultipleThenNext(TokenType.LEFT_PARENTHESIS)) {
             ParsingExpression expr = parseExpression();
@@ -300,7 +662,114 @@ public class Parser {
             return new ParsingExpression.Grouping(expr);
         }
 
-        throw cfpl.newError(getCurrent(), "Expected expression.");
+        throw error(getCurrent(), "expected-expression", "Expected expression.");
+    }
+
+    // Parses the arguments of a call to `name`, whose "(" has been consumed.
+    private ParsingExpression parseCall(Token name, boolean statement) throws Exception {
+        ParsingStatement.Function function = routines.get(name.lexeme);
+        List<ParsingExpression> arguments = new ArrayList<ParsingExpression>();
+        if (!compareCurrent(TokenType.RIGHT_PARENTHESIS))
+            do {
+                arguments.add(parseExpression());
+            } while (compareMultipleThenNext(TokenType.COMMA));
+        expectThenNext(TokenType.RIGHT_PARENTHESIS, "Expected ')' after arguments.");
+        Intrinsic intrinsic = Intrinsic.named(name.lexeme);
+        if (function == null && intrinsic != null)
+            return builtin(name, intrinsic, arguments);
+        if (function == null) {
+            report(error(name, "undefined-function", "Undefined SUB or FUNCTION '%s'.", name.lexeme));
+            // stands in for the call without causing more errors
+            return new ParsingExpression.Variable(name);
+        }
+        if (function.type == null && !statement)
+            report(error(name, "no-value", "SUB '%s' does not return a value.", name.lexeme));
+        if (arguments.size() != function.parameters.length)
+            report(error(name, "argument-count", "'%s' expects %d arguments but got %d.", name.lexeme,
+                    function.parameters.length, arguments.size()));
+        else
+            for (int i = 0; i < arguments.size(); i++)
+                if (!isAssignable(arguments.get(i), function.types[i]))
+                    report(error(name, "type-mismatch", "Expected argument %d of '%s' as '%s'.", i + 1,
+                            name.lexeme, function.types[i]));
+
+        calls++;
+        return new ParsingExpression.Call(name, arguments.toArray(new ParsingExpression[0]), function);
+    }
+
+    private ParsingExpression builtin(Token name, Intrinsic intrinsic, List<ParsingExpression> arguments)
+            throws Diagnostic {
+        if (arguments.size() != intrinsic.operands.length)
+            report(error(name, "argument-count", "'%s' expects %d arguments but got %d.", name.lexeme,
+                    intrinsic.operands.length, arguments.size()));
+        else
+            for (int i = 0; i < arguments.size(); i++)
+                if (!intrinsic.operands[i].accepts(typeOf(arguments.get(i))))
+                    report(error(name, "type-mismatch", "Expected argument %d of '%s' as '%s'.", i + 1,
+                            name.lexeme, intrinsic.operands[i]));
+
+        return new ParsingExpression.Builtin(name, intrinsic, arguments.toArray(new ParsingExpression[0]));
+    }
+
+    // The type `expr` is known to have: a declared type, STR_LIT for text, or
+    // null when it is only known at run time.
+    private TokenType typeOf(ParsingExpression expr) {
+        if (expr instanceof ParsingExpression.Literal) {
+            Object value = ((ParsingExpression.Literal) expr).value;
+            for (TokenType type : new TokenType[] { TokenType.INT, TokenType.FLOAT, TokenType.BOOL, TokenType.CHAR })
+                if (Token.checkType(value, type))
+                    return type;
+            return value instanceof String ? TokenType.STR_LIT : null;
+        }
+        if (expr instanceof ParsingExpression.Grouping)
+            return typeOf(((ParsingExpression.Grouping) expr).expression);
+        if (expr instanceof ParsingExpression.Variable)
+            return variablesType.get(((ParsingExpression.Variable) expr).name.lexeme);
+        if (expr instanceof ParsingExpression.Index)
+            return variablesType.get(((ParsingExpression.Index) expr).name.lexeme);
+        if (expr instanceof ParsingExpression.Assign)
+            return ((ParsingExpression.Assign) expr).type;
+        if (expr instanceof ParsingExpression.Call)
+            return ((ParsingExpression.Call) expr).function.type;
+        if (expr instanceof ParsingExpression.Builtin) {
+            ParsingExpression.Builtin call = (ParsingExpression.Builtin) expr;
+            TokenType[] types = new TokenType[call.arguments.length];
+            for (int i = 0; i < types.length; i++)
+                types[i] = typeOf(call.arguments[i]);
+            return types.length == call.intrinsic.operands.length ? call.intrinsic.result(types) : null;
+        }
+        if (expr instanceof ParsingExpression.Logical)
+            return TokenType.BOOL;
+        if (expr instanceof ParsingExpression.Unary) {
+            ParsingExpression.Unary unary = (ParsingExpression.Unary) expr;
+            return unary.operator.type == TokenType.NOT ? TokenType.BOOL : typeOf(unary.right);
+        }
+        if (expr instanceof ParsingExpression.Binary) {
+            ParsingExpression.Binary binary = (ParsingExpression.Binary) expr;
+            if (binary.operator.type == TokenType.AMPERSAND)
+                return TokenType.STR_LIT;
+            if (Token.logicalComparisonOperators.contains(binary.operator.type))
+                return TokenType.BOOL;
+            TokenType left = typeOf(binary.left);
+            TokenType right = typeOf(binary.right);
+            if (left == TokenType.INT && right == TokenType.INT)
+                return TokenType.INT;
+            if ((left == TokenType.INT || left == TokenType.FLOAT)
+                    && (right == TokenType.INT || right == TokenType.FLOAT))
+                return TokenType.FLOAT;
+        }
+
+        return null;
+    }
+
+    // False for a literal that cannot be stored as `type`; other expressions
+    // are checked when they run.
+    private static boolean isAssignable(ParsingExpression expr, TokenType type) {
+        if (!(expr instanceof ParsingExpression.Literal))
+            return true;
+        Object value = ((ParsingExpression.Literal) expr).value;
+
+        return Token.checkType(value, type) || type == TokenType.FLOAT && Token.checkType(value, TokenType.INT);
     }
 
     private ParsingStatement parseIf() throws Exception {
@@ -323,42 +792,236 @@ public class Parser {
     }
 
     private ParsingStatement parseOutput() throws Exception {
+        Token output = getPrevious();
         expectThenNext(TokenType.COLON, "Expected ':' after 'OUTPUT'.");
         ParsingExpression value = parseExpression();
         expectThenNext(TokenType.EOL, "Expected new line after expression.");
 
-        return new ParsingStatement.Print(value);
+        return new ParsingStatement.Print(value, output);
     }
 
     private ParsingStatement parseInput() throws Exception {
+        Token input = getPrevious();
         expectThenNext(TokenType.COLON, "Expected ':' after 'INPUT'.");
         List<ParsingExpression.Variable> variables = new ArrayList<ParsingExpression.Variable>();
-        variables.add(
-                new ParsingExpression.Variable(expectThenNext(TokenType.IDENTIFIER, "Expected identifier for input")));
-        while (compareMultipleThenNext(TokenType.COMMA))
-            variables.add(new ParsingExpression.Variable(
-                    expectThenNext(TokenType.IDENTIFIER, "Expected identifier for input")));
+        do {
+            Token name = expectThenNext(TokenType.IDENTIFIER, "Expected identifier for input");
+            if (arrays.contains(name.lexeme))
+                report(error(name, "missing-index", "Array '%s' cannot be read with INPUT.", name.lexeme));
+            writes.merge(name.lexeme, 1, Integer::sum);
+            variables.add(variable(name));
+        } while (compareMultipleThenNext(TokenType.COMMA));
         expectThenNext(TokenType.EOL, "Expected new line after expression.");
 
-        return new ParsingStatement.Input(variables.toArray(new ParsingExpression.Variable[0]));
+        return new ParsingStatement.Input(variables.toArray(new ParsingExpression.Variable[0]), input);
     }
 
     private ParsingStatement parseWhile() throws Exception {
+        Token whileToken = getPrevious();
         expectThenNext(TokenType.LEFT_PARENTHESIS, "Expected '(' after 'while'.");
         ParsingExpression condition = parseExpression();
         expectTokenAndEOLNext(TokenType.RIGHT_PARENTHESIS, "Expected ')' after condition.");
         expectTokenAndEOL(TokenType.START, "Expected 'START' before code block.");
         inControlStructure = true;
-        ParsingStatement body = parseStatement();
+        ParsingStatement body = parseLoopBody();
+
+        return Kernel.vectorize(BoundsCheck.hoist(new ParsingStatement.While(condition, body, whileToken),
+                variablesType), variablesType, arrays);
+    }
+
+    private ParsingStatement parseFor(Token parallel) throws Exception {
+        Token forToken = getPrevious();
+        Token variable = expectThenNext(TokenType.IDENTIFIER, "Expected loop variable after 'FOR'.");
+        TokenType type = variablesType.get(variable.lexeme);
+        if (type == null)
+            report(error(variable, "undefined-variable", "Undefined variable '%s'.", variable.lexeme));
+        else if (type != TokenType.INT || arrays.contains(variable.lexeme))
+            report(error(variable, "type-mismatch", "Expected loop variable as '%s'.", TokenType.INT));
+        expectThenNext(TokenType.ASSIGNMENT, "Expected '=' after loop variable.");
+        ParsingExpression start = expectInteger(parseExpression());
+        expectThenNext(TokenType.TO, "Expected 'TO' after loop start.");
+        ParsingExpression end = expectInteger(parseExpression());
+        ParsingExpression step = null;
+        if (compareMultipleThenNext(TokenType.STEP))
+            step = expectInteger(parseExpression());
+        Map<String, Reduction> reductions = new LinkedHashMap<String, Reduction>();
+        List<ParsingExpression.Variable> targets = new ArrayList<ParsingExpression.Variable>();
+        if (parallel != null) {
+            if (locals != null)
+                report(error(parallel, "misplaced-parallel", "PARALLEL FOR is not allowed in a SUB or FUNCTION."));
+            if (compareMultipleThenNext(TokenType.REDUCE))
+                do
+                    parseReduction(reductions, targets);
+                while (compareMultipleThenNext(TokenType.COMMA));
+            if (reductions.containsKey(variable.lexeme))
+                report(error(variable, "parallel-reduction", "Reduction target '%s' cannot be a loop variable.",
+                        variable.lexeme));
+        }
+        expectThenNext(TokenType.EOL, "Missing new line after 'FOR'.");
+        expectTokenAndEOL(TokenType.START, "Expected 'START' before code block.");
+        int readsBefore = reads.getOrDefault(variable.lexeme, 0);
+        int writesBefore = writes.getOrDefault(variable.lexeme, 0);
+        int callsBefore = calls;
+        writes.merge(variable.lexeme, 1, Integer::sum);
+        inControlStructure = true;
+        ParsingStatement body = parseLoopBody();
+        if (writes.get(variable.lexeme) != writesBefore + 1)
+            report(error(variable, "loop-variable-assigned", "Loop variable '%s' is assigned in the loop body.",
+                    variable.lexeme));
+        // a SUB or FUNCTION the body calls can read and assign a global loop variable
+        ParsingExpression.Variable loopVariable = variable(variable);
+        boolean called = calls != callsBefore && loopVariable.slot < 0;
+        boolean observed = called || reads.getOrDefault(variable.lexeme, 0) != readsBefore;
+        ParsingStatement.For loop = BoundsCheck.hoist(
+                new ParsingStatement.For(loopVariable, start, end, step, body, observed, called, forToken));
+        if (parallel == null)
+            return Kernel.vectorize(loop, variablesType, arrays);
+        for (Diagnostic error : ParallelCheck.check(cfpl, loop, reductions))
+            report(error);
+
+        return new ParsingStatement.ParallelFor(loop, targets.toArray(new ParsingExpression.Variable[0]),
+                reductions.values().toArray(new Reduction[0]), true, parallel);
+    }
+
+    // reduction IDENTIFIER, where the target is a global of a type the
+    // reduction accepts.
+    private void parseReduction(Map<String, Reduction> reductions, List<ParsingExpression.Variable> targets)
+            throws Exception {
+        Token name = getCurrent();
+        Reduction reduction = null;
+        if (compareMultipleThenNext(TokenType.IDENTIFIER, TokenType.AND, TokenType.OR))
+            reduction = Reduction.named(name.lexeme);
+        if (reduction == null)
+            throw error(name, "expected-reduction", "Expected SUM, MIN, MAX, AND or OR after 'REDUCE'.");
+        Token target = expectThenNext(TokenType.IDENTIFIER, "Expected reduction target after '" + name.lexeme + "'.");
+        TokenType type = variablesType.get(target.lexeme);
+        if (type == null)
+            report(error(target, "undefined-variable", "Undefined variable '%s'.", target.lexeme));
+        else if (arrays.contains(target.lexeme) || !reduction.accepts(type))
+            report(error(target, "type-mismatch", "Expected %s target as '%s'.", reduction,
+                    reduction == Reduction.AND || reduction == Reduction.OR ? "BOOL" : "INT' or 'FLOAT"));
+        else if (reductions.containsKey(target.lexeme))
+            report(error(target, "duplicate-reduction", "'%s' is already a reduction target.", target.lexeme));
+        else {
+            reductions.put(target.lexeme, reduction);
+            targets.add(new ParsingExpression.Variable(target, -1, type));
+        }
+    }
+
+    private ParsingStatement parseLoopBody() throws Exception {
+        loops++;
+        try {
+            return parseStatement();
+        } finally {
+            loops--;
+        }
+    }
 
-        return new ParsingStatement.While(condition, body);
+    private ParsingStatement parseJump() throws Exception {
+        Token keyword = getPrevious();
+        expectThenNext(TokenType.EOL, String.format("Expected new line after '%s'.", keyword.lexeme));
+        if (loops == 0)
+            report(error(keyword, "misplaced-jump", "%s is only allowed in a loop body.", keyword.lexeme));
+
+        return new ParsingStatement.Jump(keyword);
+    }
+
+    private ParsingStatement parseCase() throws Exception {
+        Token caseToken = getPrevious();
+        ParsingExpression selector = parseExpression();
+        expectThenNext(TokenType.OF, "Expected 'OF' after CASE value.");
+        expectThenNext(TokenType.EOL, "Missing new line after 'OF'.");
+        List<Integer> keys = new ArrayList<Integer>();
+        List<Integer> targets = new ArrayList<Integer>();
+        Set<Integer> used = new HashSet<Integer>();
+        List<ParsingStatement> branches = new ArrayList<ParsingStatement>();
+        TokenType type = null;
+        while (!compareCurrent(TokenType.ELSE) && !compareCurrent(TokenType.END) && !isAtEnd()) {
+            do {
+                Token label = getCurrent();
+                boolean negative = compareMultipleThenNext(TokenType.SUBTRACTION);
+                TokenType labelType;
+                int key;
+                if (compareMultipleThenNext(TokenType.INT_LIT)) {
+                    labelType = TokenType.INT;
+                    key = negative ? -(int) getPrevious().literal : (int) getPrevious().literal;
+                } else if (!negative && compareMultipleThenNext(TokenType.CHAR_LIT)) {
+                    labelType = TokenType.CHAR;
+                    key = (char) getPrevious().literal;
+                } else
+                    throw error(label, "expected-label", "Expected INT or CHAR constant as CASE label.");
+                if (type == null)
+                    type = labelType;
+                else if (labelType != type)
+                    report(error(label, "type-mismatch", "Expected CASE label as '%s'.", type));
+                if (used.add(key)) {
+                    keys.add(key);
+                    targets.add(branches.size());
+                } else
+                    report(error(label, "duplicate-label", "CASE label %s is already used.",
+                            labelType == TokenType.CHAR ? "'" + (char) key + "'" : Integer.toString(key)));
+            } while (compareMultipleThenNext(TokenType.COMMA));
+            expectThenNext(TokenType.COLON, "Expected ':' after CASE labels.");
+            expectThenNext(TokenType.EOL, "Missing new line after ':'.");
+            expectTokenAndEOL(TokenType.START, "Expected 'START' before code block.");
+            inControlStructure = true;
+            branches.add(parseStatement());
+        }
+        ParsingStatement elseBranch = null;
+        if (compareMultipleThenNext(TokenType.ELSE)) {
+            expectThenNext(TokenType.EOL, "Expected new line after CASE 'ELSE'.");
+            expectTokenAndEOL(TokenType.START, "Expected 'START' before code block.");
+            inControlStructure = true;
+            elseBranch = parseStatement();
+        }
+        expectTokenAndEOLNext(TokenType.END, "Expected 'END' after CASE.");
+        TokenType selected = typeOf(selector);
+        if (type == null)
+            type = selected == TokenType.CHAR ? TokenType.CHAR : TokenType.INT;
+        if (selected != null && selected != type)
+            report(error(caseToken, "type-mismatch", "Expected CASE value as '%s'.", type));
+
+        return new ParsingStatement.Case(selector, type, JumpTable.of(keys, targets),
+                branches.toArray(new ParsingStatement[0]), elseBranch, caseToken);
+    }
+
+    // A self call returned directly becomes a jump; see Interpreter.call.
+    private ParsingStatement parseReturn() throws Exception {
+        Token returnToken = getPrevious();
+        ParsingExpression value = null;
+        if (!compareCurrent(TokenType.EOL))
+            value = parseExpression();
+        expectThenNext(TokenType.EOL, "Expected new line after 'RETURN'.");
+        if (routine == null)
+            report(error(returnToken, "misplaced-return", "RETURN is only allowed in a SUB or FUNCTION."));
+        else if (routine.type == null && value != null)
+            report(error(returnToken, "unexpected-value", "SUB '%s' cannot return a value.", routine.name.lexeme));
+        else if (routine.type != null && value == null)
+            report(error(returnToken, "missing-value", "FUNCTION '%s' must return a '%s' value.",
+                    routine.name.lexeme, routine.type));
+        else if (routine.type != null && !isAssignable(value, routine.type))
+            report(error(returnToken, "type-mismatch", "Expected '%s' type.", routine.type));
+        if (routine != null && value instanceof ParsingExpression.Call
+                && ((ParsingExpression.Call) value).function == routine)
+            return new ParsingStatement.Return(null, ((ParsingExpression.Call) value).arguments, routine,
+                    returnToken);
+
+        return new ParsingStatement.Return(value, null, routine, returnToken);
+    }
+
+    private ParsingExpression expectInteger(ParsingExpression expr) throws Diagnostic {
+        if (expr instanceof ParsingExpression.Literal
+                && !Token.checkType(((ParsingExpression.Literal) expr).value, TokenType.INT))
+            report(error(getPrevious(), "type-mismatch", "Expected '%s' type.", TokenType.INT));
+
+        return expr;
     }
 
     private List<ParsingStatement> parseBlock() throws Exception {
         if (inScope && !inControlStructure)
-            throw cfpl.newError(getPrevious(), "Nested scope is invalid.");
+            report(error(getPrevious(), "nested-scope", "Nested scope is invalid."));
         if (!inScope && scopeCounter > 0)
-            throw cfpl.newError(getPrevious(), "Multiple scope is invalid.");
+            report(error(getPrevious(), "multiple-scope", "Multiple scope is invalid."));
         boolean isScope = false;
         if (varDeclarations && !inScope) {
             isScope = true;
@@ -369,8 +1032,14 @@ public class Parser {
         List<ParsingStatement> statements = new ArrayList<>();
         expectThenNext(TokenType.EOL, "Missing new line after START");
         inControlStructure = false;
-        while (!compareCurrent(TokenType.STOP) && !isAtEnd())
-            statements.add(parseDeclaration());
+        while (!compareCurrent(TokenType.STOP) && !isAtEnd()) {
+            int start = current;
+            try {
+                statements.add(parseDeclaration());
+            } catch (Diagnostic e) {
+                recover(e, start, true);
+            }
+        }
         expectTokenAndEOLNext(TokenType.STOP, "Expected 'STOP' after code block.");
         if (isScope)
             inScope = false;
@@ -378,41 +1047,52 @@ public class Parser {
         return statements;
     }
 
-    private Object expectLogicalExpressions(ParsingExpression expectFrom) throws Exception {
+    private void expectLogicalExpressions(ParsingExpression expectFrom) throws Diagnostic {
         TokenType type = TokenType.BOOL;
         Token erroneous = getPrevious();
-        if (expectFrom instanceof ParsingExpression.Grouping)
-            return expectLogicalExpressions(((ParsingExpression.Grouping) expectFrom).expression);
+        if (expectFrom instanceof ParsingExpression.Grouping) {
+            expectLogicalExpressions(((ParsingExpression.Grouping) expectFrom).expression);
+            return;
+        }
         if (expectFrom instanceof ParsingExpression.Unary) {
             ParsingExpression.Unary instance = (ParsingExpression.Unary) expectFrom;
-            if (instance.operator.type == TokenType.NOT)
-                return expectLogicalExpressions(instance.right);
-        }
-        try {
-            if (expectFrom instanceof ParsingExpression.Logical)
-                return null;
-            if (expectFrom instanceof ParsingExpression.Binary) {
-                ParsingExpression.Binary instance = (ParsingExpression.Binary) expectFrom;
-                if (!Token.logicalComparisonOperators.contains(instance.operator.type)) {
-                    erroneous = instance.operator;
-                    throw new Exception();
-                }
-            } else if (expectFrom instanceof ParsingExpression.Literal) {
-                ParsingExpression.Literal instance = (ParsingExpression.Literal) expectFrom;
-                if (!Token.checkType(instance.value, type))
-                    throw new Exception();
-            } else if (expectFrom instanceof ParsingExpression.Variable) {
-                ParsingExpression.Variable instance = (ParsingExpression.Variable) expectFrom;
-                if (!Token.checkType(type, variablesType.get(instance.name.lexeme))) {
-                    erroneous = instance.name;
-                    throw new Exception();
-                }
-            } else
-                throw new Exception();
-        } catch (Exception e) {
-            throw cfpl.newError(erroneous, String.format("Expected '%s' evaluation result.", type));
+            if (instance.operator.type == TokenType.NOT) {
+                expectLogicalExpressions(instance.right);
+                return;
+            }
         }
-        return null;
+        boolean logical;
+        if (expectFrom instanceof ParsingExpression.Logical)
+            logical = true;
+        else if (expectFrom instanceof ParsingExpression.Binary) {
+            ParsingExpression.Binary instance = (ParsingExpression.Binary) expectFrom;
+            logical = Token.logicalComparisonOperators.contains(instance.operator.type);
+            if (!logical)
+                erroneous = instance.operator;
+        } else if (expectFrom instanceof ParsingExpression.Literal) {
+            ParsingExpression.Literal instance = (ParsingExpression.Literal) expectFrom;
+            logical = Token.checkType(instance.value, type);
+        } else if (expectFrom instanceof ParsingExpression.Index) {
+            ParsingExpression.Index instance = (ParsingExpression.Index) expectFrom;
+            TokenType declared = variablesType.get(instance.name.lexeme);
+            logical = declared == null || Token.checkType(type, declared);
+            if (!logical)
+                erroneous = instance.name;
+        } else if (expectFrom instanceof ParsingExpression.Call) {
+            ParsingExpression.Call instance = (ParsingExpression.Call) expectFrom;
+            logical = instance.function.type == null || instance.function.type == type;
+            if (!logical)
+                erroneous = instance.name;
+        } else if (expectFrom instanceof ParsingExpression.Variable) {
+            ParsingExpression.Variable instance = (ParsingExpression.Variable) expectFrom;
+            TokenType declared = variablesType.get(instance.name.lexeme);
+            logical = declared == null || Token.checkType(type, declared);
+            if (!logical)
+                erroneous = instance.name;
+        } else
+            logical = false;
+        if (!logical)
+            report(error(erroneous, "boolean-expected", "Expected '%s' evaluation result.", type));
     }
 
     private void expectTokenAndEOLNext(TokenType type, String expectMessage) throws Exception {
@@ -431,7 +1111,36 @@ public class Parser {
         if (compareCurrent(type))
             return next();
 
-        throw cfpl.newError(getCurrent(), message);
+        throw error(getCurrent(), "expected-token", message);
+    }
+
+    private Diagnostic error(Token token, String code, String format, Object... arguments) {
+        return cfpl.newError(Diagnostic.Phase.PARSER, code, token, format, arguments);
+    }
+
+    // For errors after which parsing can go on as if the code were valid.
+    private void report(Diagnostic error) throws Diagnostic {
+        if (diagnostics == null)
+            throw error;
+        diagnostics.add(error);
+        if (diagnostics.size() >= maxErrors) {
+            capped = true;
+            throw error;
+        }
+    }
+
+    // Handles a syntax error thrown by the statement starting at token `start`.
+    private void recover(Diagnostic error, int start, boolean inBlock) throws Diagnostic {
+        if (diagnostics == null || capped)
+            throw error;
+        report(error);
+        // skip the rest of the line, stopping at the STOP that closes the block
+        while (!isAtEnd() && !compareCurrent(TokenType.EOL) && !(inBlock && compareCurrent(TokenType.STOP)))
+            next();
+        compareMultipleThenNext(TokenType.EOL);
+        // the block after a broken IF, WHILE or FOR header is still its body
+        TokenType first = tokens.get(start).type;
+        inControlStructure = first == TokenType.IF || first == TokenType.WHILE || first == TokenType.FOR;
     }
 
     private boolean compareMultipleThenNext(TokenType... types) {
@@ -1,5 +1,5 @@
 // expression     → assignment ;
-// assignment     → IDENTIFIER "=" assignment | logical_or ;
+// assignment     → IDENTIFIER ( "[" expression "]" )? "=" assignment | logical_or ;
 // logic_or       → logic_and ( "OR" logic_and )* ;
 // logic_and      → equality ( "AND" equality )* ;
 // equality       → comparison ( ( "<>" | "==" ) comparison )* ;
@@ -13,7 +13,9 @@
 //                | CHAR
 //                | STRING
 //                | "(" expression ")"
-//                | IDENTIFIER ;
+//                | IDENTIFIER
+//                | IDENTIFIER "[" expression "]"
+//                | IDENTIFIER "(" ( expression ( "," expression )* )? ")" ;
 
 abstract class ParsingExpression {
   interface Visitor<R> {
@@ -30,13 +32,28 @@ abstract class ParsingExpression {
     R unary(Unary expr) throws Exception;
 
     R variable(Variable expr) throws Exception;
+
+    R allocate(Allocate expr) throws Exception;
+
+    R index(Index expr) throws Exception;
+
+    R setIndex(SetIndex expr) throws Exception;
+
+    R call(Call expr) throws Exception;
+
+    R builtin(Builtin expr) throws Exception;
   }
 
   static class Assign extends ParsingExpression {
     Assign(Token name, ParsingExpression value, TokenType type) {
+      this(name, value, type, -1);
+    }
+
+    Assign(Token name, ParsingExpression value, TokenType type, int slot) {
       this.name = name;
       this.value = value;
       this.type = type;
+      this.slot = slot;
     }
 
     @Override
@@ -47,6 +64,7 @@ abstract class ParsingExpression {
     final Token name;
     final ParsingExpression value;
     final TokenType type;
+    final int slot;
   }
 
   static class Binary extends ParsingExpression {
@@ -124,9 +142,17 @@ abstract class ParsingExpression {
     final ParsingExpression right;
   }
 
+  // `slot` is the frame slot of a SUB or FUNCTION parameter or local, of
+  // `type`, or -1 for a global.
   static class Variable extends ParsingExpression {
     Variable(Token name) {
+      this(name, -1, null);
+    }
+
+    Variable(Token name, int slot, TokenType type) {
       this.name = name;
+      this.slot = slot;
+      this.type = type;
     }
 
     @Override
@@ -135,6 +161,104 @@ abstract class ParsingExpression {
     }
 
     final Token name;
+    final int slot;
+    final TokenType type;
+  }
+
+  // The initial value of an array variable: `length` elements of `type`.
+  static class Allocate extends ParsingExpression {
+    Allocate(TokenType type, ParsingExpression length, Token bracket) {
+      this.type = type;
+      this.length = length;
+      this.bracket = bracket;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.allocate(this);
+    }
+
+    final TokenType type;
+    final ParsingExpression length;
+    final Token bracket;
+  }
+
+  // `checked` is false when BoundsCheck has proven the index in range.
+  static class Index extends ParsingExpression {
+    Index(Token name, ParsingExpression index, Token bracket, boolean checked) {
+      this.name = name;
+      this.index = index;
+      this.bracket = bracket;
+      this.checked = checked;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.index(this);
+    }
+
+    final Token name;
+    final ParsingExpression index;
+    final Token bracket;
+    final boolean checked;
+  }
+
+  static class SetIndex extends ParsingExpression {
+    SetIndex(Token name, ParsingExpression index, ParsingExpression value, TokenType type, Token bracket,
+        boolean checked) {
+      this.name = name;
+      this.index = index;
+      this.value = value;
+      this.type = type;
+      this.bracket = bracket;
+      this.checked = checked;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.setIndex(this);
+    }
+
+    final Token name;
+    final ParsingExpression index;
+    final ParsingExpression value;
+    final TokenType type;
+    final Token bracket;
+    final boolean checked;
+  }
+
+  static class Call extends ParsingExpression {
+    Call(Token name, ParsingExpression[] arguments, ParsingStatement.Function function) {
+      this.name = name;
+      this.arguments = arguments;
+      this.function = function;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.call(this);
+    }
+
+    final Token name;
+    final ParsingExpression[] arguments;
+    final ParsingStatement.Function function;
+  }
+
+  static class Builtin extends ParsingExpression {
+    Builtin(Token name, Intrinsic intrinsic, ParsingExpression[] arguments) {
+      this.name = name;
+      this.intrinsic = intrinsic;
+      this.arguments = arguments;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.builtin(this);
+    }
+
+    final Token name;
+    final Intrinsic intrinsic;
+    final ParsingExpression[] arguments;
   }
 
   abstract <R> R visit(Visitor<R> visitor) throws Exception;
@@ -1,24 +1,51 @@
 // program        → declaration* EOF ;
 // declaration    → varDecl
+//                | routineDecl
+//                | includeDecl
 //                | statement ;
-// varDecl        → "VAR" IDENTIFIER ( "=" expression )? "EOL" ;
+// varDecl        → "VAR" IDENTIFIER ( "[" expression "]" | "=" expression )? "EOL" ;
+// includeDecl    → "INCLUDE" STRING "EOL" ;
 // statement      → exprStmt
 //                | printStmt
 //                | inputStmt
 //                | ifStmt
 //                | whileStmt
+//                | forStmt
+//                | parallelStmt
+//                | returnStmt
+//                | jumpStmt
+//                | caseStmt
 //                | block ;
+// routineDecl    → ( "SUB" IDENTIFIER parameters | "FUNCTION" IDENTIFIER parameters "AS" type ) "EOL"
+//                  varDecl* block ;
+// parameters     → "(" ( IDENTIFIER "AS" type ( "," IDENTIFIER "AS" type )* )? ")" ;
 // exprStmt       → expression "EOL" ;
 // printStmt      → "PRINT" expression "EOL" ;
 // inputStmt      → "OUTPUT" ":" expression "EOL" ;
 // ifStmt         → "IF" "(" expression ")" "START" statement "STOP"
 //                ( "ELSE" "START" statement "STOP" )? ;
 // whileStmt      → "WHILE" "(" expression ")" "START" statement "STOP" ;
+// forStmt        → "FOR" IDENTIFIER "=" expression "TO" expression ( "STEP" expression )?
+//                  "START" statement "STOP" ;
+// parallelStmt   → "PARALLEL" "FOR" IDENTIFIER "=" expression "TO" expression ( "STEP" expression )?
+//                  ( "REDUCE" reduction IDENTIFIER ( "," reduction IDENTIFIER )* )?
+//                  "START" statement "STOP" ;
+// reduction      → "SUM" | "MIN" | "MAX" | "AND" | "OR" ;
+// returnStmt     → "RETURN" expression? "EOL" ;
+// jumpStmt       → ( "BREAK" | "CONTINUE" ) "EOL" ;
+// caseStmt       → "CASE" expression "OF" "EOL"
+//                  ( label ( "," label )* ":" "EOL" "START" statement "STOP" )*
+//                  ( "ELSE" "EOL" "START" statement "STOP" )? "END" "EOL" ;
+// label          → "-"? INT | CHAR ;
 // block          → "START" declaration* "STOP" ;
 
 import java.util.List;
 
 abstract class ParsingStatement {
+  ParsingStatement(Token token) {
+    this.token = token;
+  }
+
   interface Visitor<R> {
     R block(Block stmt) throws Exception;
 
@@ -33,10 +60,25 @@ abstract class ParsingStatement {
     R var(Var stmt) throws Exception;
 
     R whileS(While stmt) throws Exception;
+
+    R forS(For stmt) throws Exception;
+
+    R parallelFor(ParallelFor stmt) throws Exception;
+
+    R vectorized(Vectorized stmt) throws Exception;
+
+    R function(Function stmt) throws Exception;
+
+    R returnS(Return stmt) throws Exception;
+
+    R jump(Jump stmt) throws Exception;
+
+    R caseS(Case stmt) throws Exception;
   }
 
   static class Block extends ParsingStatement {
-    Block(List<ParsingStatement> statements) {
+    Block(List<ParsingStatement> statements, Token start) {
+      super(start);
       this.statements = statements;
     }
 
@@ -49,7 +91,8 @@ abstract class ParsingStatement {
   }
 
   static class Expression extends ParsingStatement {
-    Expression(ParsingExpression expression) {
+    Expression(ParsingExpression expression, Token first) {
+      super(first);
       this.expression = expression;
     }
 
@@ -63,10 +106,10 @@ abstract class ParsingStatement {
 
   static class If extends ParsingStatement {
     If(ParsingExpression condition, ParsingStatement thenBranch, ParsingStatement elseBranch, Token ifToken) {
+      super(ifToken);
       this.condition = condition;
       this.thenBranch = thenBranch;
       this.elseBranch = elseBranch;
-      this.ifToken = ifToken;
     }
 
     @Override
@@ -74,14 +117,14 @@ abstract class ParsingStatement {
       return visitor.ifS(this);
     }
 
-    final Token ifToken;
     final ParsingExpression condition;
     final ParsingStatement thenBranch;
     final ParsingStatement elseBranch;
   }
 
   static class Print extends ParsingStatement {
-    Print(ParsingExpression expression) {
+    Print(ParsingExpression expression, Token output) {
+      super(output);
       this.expression = expression;
     }
 
@@ -94,7 +137,8 @@ abstract class ParsingStatement {
   }
 
   static class Input extends ParsingStatement {
-    Input(ParsingExpression.Variable[] variables) {
+    Input(ParsingExpression.Variable[] variables, Token input) {
+      super(input);
       this.variables = variables;
     }
 
@@ -108,6 +152,7 @@ abstract class ParsingStatement {
 
   static class Var extends ParsingStatement {
     Var(Token name, ParsingExpression initializer) {
+      super(name);
       this.name = name;
       this.initializer = initializer;
     }
@@ -122,9 +167,19 @@ abstract class ParsingStatement {
   }
 
   static class While extends ParsingStatement {
-    While(ParsingExpression condition, ParsingStatement body) {
+    While(ParsingExpression condition, ParsingStatement body, Token whileToken) {
+      this(condition, body, whileToken, null, null);
+    }
+
+    // uncheckedBody runs instead of body when guard holds on loop entry; see
+    // BoundsCheck.
+    While(ParsingExpression condition, ParsingStatement body, Token whileToken, BoundsCheck.Guard guard,
+        ParsingStatement uncheckedBody) {
+      super(whileToken);
       this.condition = condition;
       this.body = body;
+      this.guard = guard;
+      this.uncheckedBody = uncheckedBody;
     }
 
     @Override
@@ -134,7 +189,184 @@ abstract class ParsingStatement {
 
     final ParsingExpression condition;
     final ParsingStatement body;
+    final BoundsCheck.Guard guard;
+    final ParsingStatement uncheckedBody;
+  }
+
+  // Counts `variable` from start to end inclusive. `observed` is false when
+  // the body never reads the variable, which is then only stored once the loop
+  // ends. `calls` is set when the variable is global and the body calls a SUB
+  // or FUNCTION, which may assign it, so it is read back after each iteration.
+  // uncheckedBody runs instead of body when every index in `arrays` covers the
+  // whole range, see BoundsCheck.
+  static class For extends ParsingStatement {
+    For(ParsingExpression.Variable variable, ParsingExpression start, ParsingExpression end,
+        ParsingExpression step, ParsingStatement body, boolean observed, boolean calls, Token forToken) {
+      this(variable, start, end, step, body, observed, calls, forToken, null, null);
+    }
+
+    For(ParsingExpression.Variable variable, ParsingExpression start, ParsingExpression end, ParsingExpression step,
+        ParsingStatement body, boolean observed, boolean calls, Token forToken, Token[] arrays,
+        ParsingStatement uncheckedBody) {
+      super(forToken);
+      this.variable = variable;
+      this.start = start;
+      this.end = end;
+      this.step = step;
+      this.body = body;
+      this.observed = observed;
+      this.calls = calls;
+      this.arrays = arrays;
+      this.uncheckedBody = uncheckedBody;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.forS(this);
+    }
+
+    final ParsingExpression.Variable variable;
+    final ParsingExpression start;
+    final ParsingExpression end;
+    final ParsingExpression step;
+    final ParsingStatement body;
+    final boolean observed;
+    final boolean calls;
+    final Token[] arrays;
+    final ParsingStatement uncheckedBody;
+  }
+
+  // A FOR loop whose iterations the Parser has found independent (see
+  // ParallelCheck), so they may run at the same time. When it ends, each
+  // target is combined with its reduction. `concurrent` is false in copies
+  // whose probes are not thread-safe; they run the same chunks one by one.
+  static class ParallelFor extends ParsingStatement {
+    ParallelFor(For loop, ParsingExpression.Variable[] targets, Reduction[] reductions, boolean concurrent,
+        Token parallelToken) {
+      super(parallelToken);
+      this.loop = loop;
+      this.targets = targets;
+      this.reductions = reductions;
+      this.concurrent = concurrent;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.parallelFor(this);
+    }
+
+    final For loop;
+    final ParsingExpression.Variable[] targets;
+    final Reduction[] reductions;
+    final boolean concurrent;
+  }
+
+  // A FOR or WHILE loop whose body Kernel can run as one Java loop. The
+  // Interpreter falls back to `loop` when the kernel declines.
+  static class Vectorized extends ParsingStatement {
+    Vectorized(ParsingStatement loop, Kernel kernel) {
+      super(loop.token);
+      this.loop = loop;
+      this.kernel = kernel;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.vectorized(this);
+    }
+
+    final ParsingStatement loop;
+    final Kernel kernel;
+  }
+
+  // A SUB, when `type` is null, or a FUNCTION returning `type`. Its parameters
+  // and then its locals live in the typed slots of a call frame, one slot per
+  // entry of `types` and `names`. `body` is set once it has been parsed, since
+  // the calls in it may refer to the function itself.
+  static class Function extends ParsingStatement {
+    Function(Token name, Token[] parameters, String[] names, TokenType[] types, TokenType type) {
+      super(name);
+      this.name = name;
+      this.parameters = parameters;
+      this.names = names;
+      this.types = types;
+      this.type = type;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.function(this);
+    }
+
+    final Token name;
+    final Token[] parameters;
+    final String[] names;
+    final TokenType[] types;
+    final TokenType type;
+    ParsingStatement body;
+  }
+
+  // `tailArguments` is set instead of `value` for `RETURN f(...)` inside f,
+  // whose arguments then replace the parameters of the running call.
+  static class Return extends ParsingStatement {
+    Return(ParsingExpression value, ParsingExpression[] tailArguments, Function function, Token returnToken) {
+      super(returnToken);
+      this.value = value;
+      this.tailArguments = tailArguments;
+      this.function = function;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.returnS(this);
+    }
+
+    final ParsingExpression value;
+    final ParsingExpression[] tailArguments;
+    final Function function;
   }
 
+  // BREAK, or CONTINUE when `exits` is false, of the innermost loop.
+  static class Jump extends ParsingStatement {
+    Jump(Token keyword) {
+      super(keyword);
+      this.exits = keyword.type == TokenType.BREAK;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.jump(this);
+    }
+
+    final boolean exits;
+  }
+
+  // Runs the branch whose label equals `selector`, an INT or CHAR as `type`
+  // says, or `elseBranch`, which may be null.
+  static class Case extends ParsingStatement {
+    Case(ParsingExpression selector, TokenType type, JumpTable labels, ParsingStatement[] branches,
+        ParsingStatement elseBranch, Token caseToken) {
+      super(caseToken);
+      this.selector = selector;
+      this.type = type;
+      this.labels = labels;
+      this.branches = branches;
+      this.elseBranch = elseBranch;
+    }
+
+    @Override
+    <R> R visit(Visitor<R> visitor) throws Exception {
+      return visitor.caseS(this);
+    }
+
+    final ParsingExpression selector;
+    final TokenType type;
+    final JumpTable labels;
+    final ParsingStatement[] branches;
+    final ParsingStatement elseBranch;
+  }
+
+  final Token token;
+
   abstract <R> R visit(Visitor<R> visitor) throws Exception;
 }
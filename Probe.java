@@ -0,0 +1,131 @@
+// Receives execution events from a program instrumented by Instrumenter.
+//
+// Programs that run without probes are never instrumented, so none of these
+// calls exist on the normal execution path.
+interface Probe {
+    // Called once per statement of the program while it is instrumented.
+    default void register(ParsingStatement stmt) {
+    }
+
+    // Called once before the instrumented program starts running, and once
+    // after it has stopped, however it stopped.
+    default void attach(Interpreter interpreter) {
+    }
+
+    default void detach() {
+    }
+
+    default void statementEnter(ParsingStatement stmt) throws Exception {
+    }
+
+    default void statementExit(ParsingStatement stmt) {
+    }
+
+    // Surround the condition evaluation of an IF or WHILE statement.
+    default void conditionEnter(ParsingStatement owner) {
+    }
+
+    default void conditionExit(ParsingStatement owner, Object value) {
+    }
+
+    // Whether expression() should be called; wrapping every expression is the
+    // most expensive part of instrumentation.
+    default boolean observesExpressions() {
+        return false;
+    }
+
+    default void expression(ParsingExpression expr, Object value) {
+    }
+
+    // Called after an assignment or INPUT writes a variable.
+    default void assign(Token name, Object value) {
+    }
+
+    // Called after assign() for each value INPUT stores.
+    default void input(Token name, Object value) {
+    }
+
+    // Called each time a loop body finishes and control goes back to its condition.
+    default void backEdge(ParsingStatement loop) throws Exception {
+    }
+
+    static Probe of(Probe... probes) {
+        if (probes.length == 1)
+            return probes[0];
+        return new Probe() {
+            @Override
+            public void register(ParsingStatement stmt) {
+                for (Probe probe : probes)
+                    probe.register(stmt);
+            }
+
+            @Override
+            public void attach(Interpreter interpreter) {
+                for (Probe probe : probes)
+                    probe.attach(interpreter);
+            }
+
+            @Override
+            public void detach() {
+                for (Probe probe : probes)
+                    probe.detach();
+            }
+
+            @Override
+            public void statementEnter(ParsingStatement stmt) throws Exception {
+                for (Probe probe : probes)
+                    probe.statementEnter(stmt);
+            }
+
+            @Override
+            public void statementExit(ParsingStatement stmt) {
+                for (int i = probes.length - 1; i >= 0; i--)
+                    probes[i].statementExit(stmt);
+            }
+
+            @Override
+            public void conditionEnter(ParsingStatement owner) {
+                for (Probe probe : probes)
+                    probe.conditionEnter(owner);
+            }
+
+            @Override
+            public void conditionExit(ParsingStatement owner, Object value) {
+                for (int i = probes.length - 1; i >= 0; i--)
+                    probes[i].conditionExit(owner, value);
+            }
+
+            @Override
+            public boolean observesExpressions() {
+                for (Probe probe : probes)
+                    if (probe.observesExpressions())
+                        return true;
+                return false;
+            }
+
+            @Override
+            public void expression(ParsingExpression expr, Object value) {
+                for (Probe probe : probes)
+                    probe.expression(expr, value);
+            }
+
+            @Override
+            public void assign(Token name, Object value) {
+                for (Probe probe : probes)
+                    probe.assign(name, value);
+            }
+
+            @Override
+            public void input(Token name, Object value) {
+                for (Probe probe : probes)
+                    probe.input(name, value);
+            }
+
+            @Override
+            public void backEdge(ParsingStatement loop) throws Exception {
+                for (Probe probe : probes)
+                    probe.backEdge(loop);
+            }
+        };
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Line-level profiler for one program run.
+//
+// Executed statements and loop/if conditions are kept as a tree of frames, one
+// node per distinct nesting path. In exact mode every frame is timed with
+// System.nanoTime; in sampling mode hit counts stay exact but time comes from a
+// background thread that charges the running frame every SAMPLE_INTERVAL_MICROS,
+// which keeps the overhead flat on tight loops.
+class Profiler implements Probe {
+    static final long SAMPLE_INTERVAL_MICROS = 1000;
+
+    private static class Node {
+        final Node parent;
+        final int line;
+        final boolean condition;
+        Node[] children = new Node[0];
+        long hits = 0;
+        long totalNanos = 0;
+        long selfNanos = 0;
+        volatile long samples = 0;
+        long start;
+        long childNanos;
+
+        Node(Node parent, int line, boolean condition) {
+            this.parent = parent;
+            this.line = line;
+            this.condition = condition;
+        }
+
+        Node child(int line, boolean condition) {
+            for (Node child : children)
+                if (child.line == line && child.condition == condition)
+                    return child;
+            Node child = new Node(this, line, condition);
+            Node[] grown = new Node[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, children.length);
+            grown[children.length] = child;
+            children = grown;
+
+            return child;
+        }
+    }
+
+    private final CFPL cfpl;
+    private final boolean sampling;
+    private final Node root = new Node(null, -1, false);
+    private volatile Node current = root;
+    private Thread sampler;
+
+    Profiler(CFPL cfpl, boolean sampling) {
+        this.cfpl = cfpl;
+        this.sampling = sampling;
+    }
+
+    @Override
+    public void attach(Interpreter interpreter) {
+        if (!sampling)
+            return;
+        sampler = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(SAMPLE_INTERVAL_MICROS / 1000, (int) (SAMPLE_INTERVAL_MICROS % 1000) * 1000);
+                    Node node = current;
+                    if (node != root)
+                        node.samples++;
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }, "cfpl-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    @Override
+    public void detach() {
+        if (sampler != null)
+            sampler.interrupt();
+    }
+
+    @Override
+    public void statementEnter(ParsingStatement stmt) {
+        enter(stmt, false);
+    }
+
+    @Override
+    public void statementExit(ParsingStatement stmt) {
+        exit();
+    }
+
+    @Override
+    public void conditionEnter(ParsingStatement owner) {
+        enter(owner, true);
+    }
+
+    @Override
+    public void conditionExit(ParsingStatement owner, Object value) {
+        exit();
+    }
+
+    private void enter(ParsingStatement stmt, boolean condition) {
+        Node node = current.child(stmt.token.line, condition);
+        node.hits++;
+        if (!sampling) {
+            node.childNanos = 0;
+            node.start = System.nanoTime();
+        }
+        current = node;
+    }
+
+    private void exit() {
+        Node node = current;
+        if (!sampling) {
+            long elapsed = System.nanoTime() - node.start;
+            node.totalNanos += elapsed;
+            node.selfNanos += elapsed - node.childNanos;
+            node.parent.childNanos += elapsed;
+        }
+        current = node.parent;
+    }
+
+    private long self(Node node) {
+        return sampling ? node.samples * SAMPLE_INTERVAL_MICROS * 1000 : node.selfNanos;
+    }
+
+    private long total(Node node) {
+        if (!sampling)
+            return node.totalNanos;
+        long nanos = self(node);
+        for (Node child : node.children)
+            nanos += total(child);
+
+        return nanos;
+    }
+
+    private static class LineStats {
+        final int line;
+        long hits = 0;
+        long conditionHits = 0;
+        long selfNanos = 0;
+        long totalNanos = 0;
+
+        LineStats(int line) {
+            this.line = line;
+        }
+    }
+
+    private void collect(Node node, LineStats[] lines, int[] active) {
+        for (Node child : node.children) {
+            LineStats stats = lines[child.line];
+            if (stats == null)
+                stats = lines[child.line] = new LineStats(child.line);
+            if (child.condition)
+                stats.conditionHits += child.hits;
+            else
+                stats.hits += child.hits;
+            stats.selfNanos += self(child);
+            if (active[child.line] == 0)
+                stats.totalNanos += total(child);
+            active[child.line]++;
+            collect(child, lines, active);
+            active[child.line]--;
+        }
+    }
+
+    void report(PrintStream out) {
+        int lineCount = 1;
+        for (int i = 0; i < cfpl.getSourceCode().length(); i++)
+            if (cfpl.getSourceCode().charAt(i) == '\n')
+                lineCount++;
+        LineStats[] lines = new LineStats[lineCount];
+        collect(root, lines, new int[lineCount]);
+        List<LineStats> hot = new ArrayList<LineStats>();
+        for (LineStats stats : lines)
+            if (stats != null)
+                hot.add(stats);
+        hot.sort((a, b) -> Long.compare(b.selfNanos, a.selfNanos));
+
+        out.println(String.format("Profile (%s)", sampling
+                ? String.format("sampled every %d us", SAMPLE_INTERVAL_MICROS)
+                : "exact timing"));
+        out.println(String.format("%6s %12s %12s %12s %12s  %s", "line", "hits", "conditions", "self ms",
+                "total ms", "source"));
+        for (LineStats stats : hot)
+            out.println(String.format("%6d %12d %12d %12.3f %12.3f  %s", stats.line + 1, stats.hits,
+                    stats.conditionHits, stats.selfNanos / 1e6, stats.totalNanos / 1e6,
+                    cfpl.getCodeAtLine(stats.line).trim()));
+        out.flush();
+    }
+
+    // Writes one "frame;frame;frame weight" line per path, the collapsed-stack
+    // format read by flamegraph.pl and compatible tools. Weights are
+    // microseconds in exact mode and samples in sampling mode.
+    void writeCollapsed(PrintStream out) {
+        writeCollapsed(root, "", out);
+        out.flush();
+    }
+
+    private void writeCollapsed(Node node, String path, PrintStream out) {
+        for (Node child : node.children) {
+            String frame = String.format("%d:%s%s", child.line + 1,
+                    cfpl.getCodeAtLine(child.line).trim().replace(';', ','), child.condition ? " [condition]" : "");
+            String childPath = path.isEmpty() ? frame : path + ";" + frame;
+            long weight = sampling ? child.samples : self(child) / 1000;
+            if (weight > 0)
+                out.println(childPath + " " + weight);
+            writeCollapsed(child, childPath, out);
+        }
+    }
+}
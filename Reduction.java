@@ -0,0 +1,48 @@
+// How a PARALLEL FOR combines the values its chunks leave in a reduction
+// target. Each chunk starts the target at identity() and the results are
+// combined in chunk order, so the outcome does not depend on scheduling.
+enum Reduction {
+    SUM, MIN, MAX, AND, OR;
+
+    static Reduction named(String name) {
+        for (Reduction reduction : values())
+            if (reduction.name().equals(name))
+                return reduction;
+
+        return null;
+    }
+
+    boolean accepts(TokenType type) {
+        if (this == AND || this == OR)
+            return type == TokenType.BOOL;
+
+        return type == TokenType.INT || type == TokenType.FLOAT;
+    }
+
+    Object identity(TokenType type) {
+        switch (this) {
+            case SUM:
+                return type == TokenType.INT ? (Object) 0 : (Object) 0.0;
+            case MIN:
+                return type == TokenType.INT ? (Object) Integer.MAX_VALUE : (Object) Double.POSITIVE_INFINITY;
+            case MAX:
+                return type == TokenType.INT ? (Object) Integer.MIN_VALUE : (Object) Double.NEGATIVE_INFINITY;
+            default:
+                return this == AND;
+        }
+    }
+
+    Object combine(Object a, Object b) {
+        if (this == AND)
+            return (boolean) a && (boolean) b;
+        if (this == OR)
+            return (boolean) a || (boolean) b;
+        if (a instanceof Integer && b instanceof Integer) {
+            int x = (int) a, y = (int) b;
+            return this == SUM ? x + y : this == MIN ? Math.min(x, y) : Math.max(x, y);
+        }
+        double x = ((Number) a).doubleValue(), y = ((Number) b).doubleValue();
+
+        return this == SUM ? x + y : this == MIN ? Math.min(x, y) : Math.max(x, y);
+    }
+}
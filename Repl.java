@@ -0,0 +1,199 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Read-eval-print loop.
+//
+// One Parser, Interpreter and set of globals live for the whole session, so
+// each input is lexed and parsed on its own against what the inputs before it
+// declared, and runs on the variables they left. VAR, SUB, FUNCTION and
+// INCLUDE can be entered at any time, and other statements run as soon as
+// they are complete. An input that opens a block, such as IF or SUB, goes on
+// until a blank line after its last STOP or END, since an ELSE may still
+// follow. The value of an expression that is not an assignment or a SUB call
+// is printed.
+class Repl {
+    private final BufferedReader lines;
+    private final PrintStream out;
+    private final boolean prompt;
+    private final CFPL session = CFPL.fromSource("");
+    private final Parser parser = new Parser(session);
+    private final Interpreter interpreter;
+    // Whether the last byte written is the end of a line.
+    private boolean lineEnded = true;
+
+    Repl(BufferedReader lines, PrintStream out, Limits limits, boolean prompt) {
+        this.lines = lines;
+        this.prompt = prompt;
+        this.out = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                out.write(b);
+                lineEnded = b == '\n';
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                out.write(b, off, len);
+                if (len > 0)
+                    lineEnded = b[off + len - 1] == '\n';
+            }
+
+            @Override
+            public void flush() {
+                out.flush();
+            }
+        }, true, StandardCharsets.UTF_8);
+        this.interpreter = new Interpreter(session, new LineInputStream(), this.out, limits);
+    }
+
+    void run() throws IOException {
+        List<String> input = new ArrayList<String>();
+        while (true) {
+            if (prompt) {
+                out.print(input.isEmpty() ? "> " : ". ");
+                out.flush();
+            }
+            String line = lines.readLine();
+            if (line == null)
+                break;
+            if (input.isEmpty() && line.isBlank())
+                continue;
+            input.add(line);
+            if (isComplete(input)) {
+                evaluate(String.join("\n", input) + "\n");
+                input.clear();
+            }
+        }
+        if (!input.isEmpty())
+            evaluate(String.join("\n", input) + "\n");
+        if (!lineEnded)
+            out.println();
+    }
+
+    private static String firstWord(String line) {
+        line = line.trim();
+        int end = 0;
+        while (end < line.length() && Character.isUpperCase(line.charAt(end)))
+            end++;
+
+        return line.substring(0, end);
+    }
+
+    private static boolean isComplete(List<String> input) {
+        int depth = 0;
+        for (String line : input)
+            switch (firstWord(line)) {
+                case "START":
+                case "CASE":
+                    depth++;
+                    break;
+                case "STOP":
+                case "END":
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        if (depth > 0)
+            return false;
+        if (input.size() > 1)
+            return input.get(input.size() - 1).isBlank();
+        switch (firstWord(input.get(0))) {
+            case "IF":
+            case "WHILE":
+            case "FOR":
+            case "PARALLEL":
+            case "CASE":
+            case "SUB":
+            case "FUNCTION":
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private void evaluate(String source) {
+        CFPL cfpl = CFPL.fromSource(source, new File("").getAbsoluteFile());
+        try {
+            List<Token> tokens = new Lexer(cfpl).run();
+            for (Token token : tokens)
+                token.source = cfpl;
+            List<ParsingStatement> statements = parser.parseInput(cfpl, tokens);
+            for (int i = 0; i < statements.size(); i++)
+                statements.set(i, shown(statements.get(i)));
+            interpreter.resume(statements);
+        } catch (Diagnostic e) {
+            error(e.phase.label, e.getMessage());
+        } catch (Exception e) {
+            error("Interpreter-Error", e.getMessage());
+        }
+        if (!lineEnded && prompt)
+            out.println();
+        out.flush();
+    }
+
+    // An expression statement that is not an assignment or a SUB call becomes
+    // an OUTPUT of its value on a line of its own.
+    private static ParsingStatement shown(ParsingStatement stmt) {
+        if (!(stmt instanceof ParsingStatement.Expression))
+            return stmt;
+        ParsingExpression expr = ((ParsingStatement.Expression) stmt).expression;
+        if (expr instanceof ParsingExpression.Assign || expr instanceof ParsingExpression.SetIndex
+                || expr instanceof ParsingExpression.Call && ((ParsingExpression.Call) expr).function.type == null)
+            return stmt;
+
+        List<ParsingStatement> output = new ArrayList<ParsingStatement>();
+        output.add(new ParsingStatement.Print(expr, stmt.token));
+        output.add(new ParsingStatement.Print(new ParsingExpression.Literal("\n"), stmt.token));
+
+        return new ParsingStatement.Block(output, stmt.token);
+    }
+
+    private void error(String label, String message) {
+        if (!lineEnded)
+            out.println();
+        out.println(String.format("[%s] %s", label, message));
+    }
+
+    // Hands INPUT the next line of the session when it needs one, so that it
+    // reads from the same lines as the REPL and never past what it asks for.
+    private class LineInputStream extends InputStream {
+        private byte[] line = new byte[0];
+        private int next = 0;
+
+        private boolean fill() throws IOException {
+            if (next < line.length)
+                return true;
+            String text = lines.readLine();
+            if (text == null)
+                return false;
+            line = (text + "\n").getBytes(StandardCharsets.UTF_8);
+            next = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? line[next++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!fill())
+                return -1;
+            int n = Math.min(len, line.length - next);
+            System.arraycopy(line, next, b, off, n);
+            next += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+// Multiplexes many program runs over a fixed number of worker slots.
+//
+// A task gets a thread of its own when it is first dispatched, and only
+// `workers` of them hold a slot at any time. At most THREADS_PER_WORKER times
+// `workers` tasks have a thread at once; the others wait in the queue without
+// one until a started task finishes, so a large batch does not create a
+// thread per case. A running Interpreter offers its slot back every `quantum` loop
+// iterations through Task.yieldSlice; the slot then goes to the ready task with
+// the least virtual runtime, so short scripts are not stuck behind long ones.
+// Virtual runtime grows by the quantum divided by the task priority, and no
+// tenant may hold more than `tenantSlots` slots at once.
+class Scheduler {
+    static final long DEFAULT_QUANTUM = 10_000;
+    private static final int THREADS_PER_WORKER = 4;
+    private static final ThreadLocal<Task> current = new ThreadLocal<Task>();
+
+    class Task implements Comparable<Task> {
+        final String tenant;
+        final int priority;
+        private final long sequence;
+        private final Callable<?> job;
+        private final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        private long vruntime;
+        private long slices = 0;
+        private Thread thread;
+        private volatile boolean granted = false;
+
+        private Task(String tenant, int priority, long sequence, Callable<?> job) {
+            this.tenant = tenant;
+            this.priority = Math.max(1, priority);
+            this.sequence = sequence;
+            this.job = job;
+        }
+
+        long quantum() {
+            return quantum;
+        }
+
+        void yieldSlice() throws InterruptedException {
+            Scheduler.this.yieldSlice(this);
+        }
+
+        private void run() {
+            current.set(this);
+            try {
+                result.complete(job.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                current.remove();
+                finish(this);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (vruntime != other.vruntime)
+                return Long.compare(vruntime, other.vruntime);
+            if (slices != other.slices)
+                return Long.compare(slices, other.slices);
+
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final int workers;
+    private final long quantum;
+    private final int tenantSlots;
+    private final PriorityQueue<Task> ready = new PriorityQueue<Task>();
+    private final Map<String, Integer> tenantRunning = new HashMap<String, Integer>();
+    private final int maxThreads;
+    private int running = 0;
+    // Tasks that have a thread and have not finished.
+    private int started = 0;
+    private long sequence = 0;
+    private long clock = 0;
+
+    Scheduler(int workers, long quantum, int tenantSlots) {
+        this.workers = Math.max(1, workers);
+        this.quantum = Math.max(1, quantum);
+        this.tenantSlots = tenantSlots > 0 ? tenantSlots : this.workers;
+        this.maxThreads = this.workers * THREADS_PER_WORKER;
+    }
+
+    static Task currentTask() {
+        return current.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized <T> CompletableFuture<T> submit(String tenant, int priority, Callable<T> job) {
+        Task task = new Task(tenant == null ? "" : tenant, priority, sequence++, job);
+        task.vruntime = clock;
+        ready.add(task);
+        dispatch();
+
+        return (CompletableFuture<T>) (CompletableFuture<?>) task.result;
+    }
+
+    private void yieldSlice(Task task) throws InterruptedException {
+        synchronized (this) {
+            task.slices++;
+            task.vruntime += quantum / task.priority;
+            if (ready.isEmpty())
+                return;
+            task.granted = false;
+            release(task);
+            ready.add(task);
+            dispatch();
+        }
+        while (!task.granted) {
+            LockSupport.park(this);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    private synchronized void finish(Task task) {
+        release(task);
+        started--;
+        dispatch();
+    }
+
+    private void release(Task task) {
+        running--;
+        tenantRunning.merge(task.tenant, -1, Integer::sum);
+    }
+
+    private void dispatch() {
+        List<Task> skipped = new ArrayList<Task>();
+        while (running < workers && !ready.isEmpty()) {
+            Task task = ready.poll();
+            // with maxThreads above workers, a started task is then always ready
+            if (tenantRunning.getOrDefault(task.tenant, 0) >= tenantSlots
+                    || task.thread == null && started >= maxThreads) {
+                skipped.add(task);
+                continue;
+            }
+            running++;
+            tenantRunning.merge(task.tenant, 1, Integer::sum);
+            clock = Math.max(clock, task.vruntime);
+            task.granted = true;
+            if (task.thread == null) {
+                started++;
+                task.thread = Interpreter.newThread(task::run, "cfpl-task-" + task.sequence);
+                task.thread.setDaemon(true);
+                task.thread.start();
+            } else
+                LockSupport.unpark(task.thread);
+        }
+        ready.addAll(skipped);
+    }
+}
@@ -1,36 +1,56 @@
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 class Storage {
     final Storage scope;
+    private final CFPL cfpl;
     private final Map<String, Object> variables = new HashMap<>();
 
-    Storage() {
+    Storage(CFPL cfpl) {
         scope = null;
+        this.cfpl = cfpl;
     }
 
     // Environment(Environment enclosing) {
     // this.enclosing = enclosing;
     // }
 
-    Object get(Token name) throws Exception {
+    Object get(Token name) throws Diagnostic {
         if (variables.containsKey(name.lexeme)) {
             return variables.get(name.lexeme);
         }
 
-        throw new Exception("Undefined variable '" + name.lexeme + "'.");
+        throw undefined(name);
     }
 
-    void assign(Token name, Object value) throws Exception {
+    void assign(Token name, Object value) throws Diagnostic {
         if (variables.containsKey(name.lexeme)) {
             variables.put(name.lexeme, value);
             return;
         }
 
-        throw new Exception("Undefined variable '" + name.lexeme + "'.");
+        throw undefined(name);
+    }
+
+    private Diagnostic undefined(Token name) {
+        return cfpl.newError(Diagnostic.Phase.INTERPRETER, "undefined-variable", name, "Undefined variable '%s'.",
+                name.lexeme);
     }
 
     void define(String name, Object value) {
         variables.put(name, value);
     }
+
+    // A copy of the variables; arrays are shared with this Storage.
+    Storage copy() {
+        Storage copy = new Storage(cfpl);
+        copy.variables.putAll(variables);
+
+        return copy;
+    }
+
+    Map<String, Object> values() {
+        return Collections.unmodifiableMap(variables);
+    }
 }
\ No newline at end of file
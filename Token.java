@@ -1,82 +1,63 @@
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class Token {
-    public static final HashMap<String, TokenType> reservedWords = new HashMap<String, TokenType>() {
-        {
-            put("AND", TokenType.AND);
-            put("OR", TokenType.OR);
-            put("NOT", TokenType.NOT);
-            put("OUTPUT", TokenType.OUTPUT);
-            put("INPUT", TokenType.INPUT);
-            put("VAR", TokenType.VAR);
-            put("AS", TokenType.AS);
-            put("INT", TokenType.INT);
-            put("BOOL", TokenType.BOOL);
-            put("FLOAT", TokenType.FLOAT);
-            put("CHAR", TokenType.CHAR);
-            put("START", TokenType.START);
-            put("STOP", TokenType.STOP);
-            put("IF", TokenType.IF);
-            put("ELSE", TokenType.ELSE);
-            put("WHILE", TokenType.WHILE);
-        }
-    };
-
-    public static final HashMap<TokenType, String> tokenTypeToLexeme = new HashMap<TokenType, String>() {
-        {
-            put(TokenType.LEFT_PARENTHESIS, "(");
-            put(TokenType.RIGHT_PARENTHESIS, ")");
-            put(TokenType.LEFT_BRACE, "[");
-            put(TokenType.RIGHT_BRACE, "]");
-            put(TokenType.COMMA, ",");
-            put(TokenType.ASSIGNMENT, "=");
-            put(TokenType.COLON, ":");
-            put(TokenType.OCTOTHORPE, "#");
-            put(TokenType.AMPERSAND, "&");
-            put(TokenType.ADDITION, "+");
-            put(TokenType.SUBTRACTION, "-");
-            put(TokenType.MULTIPLICATION, "*");
-            put(TokenType.DIVISION, "/");
-            put(TokenType.MODULO, "%");
-            put(TokenType.GREATER, ">");
-            put(TokenType.LESSER, "<");
-            put(TokenType.GREATER_EQUAL, ">=");
-            put(TokenType.LESSER_EQUAL, "<=");
-            put(TokenType.EQUAL, "==");
-            put(TokenType.NOT_EQUAL, "<>");
-            put(TokenType.AND, "AND");
-            put(TokenType.OR, "OR");
-            put(TokenType.NOT, "NOT");
-            put(TokenType.OUTPUT, "OUTPUT");
-            put(TokenType.INPUT, "INPUT");
-            put(TokenType.VAR, "VAR");
-            put(TokenType.AS, "AS");
-            put(TokenType.INT, "INT");
-            put(TokenType.BOOL, "BOOL");
-            put(TokenType.FLOAT, "FLOAT");
-            put(TokenType.CHAR, "CHAR");
-            put(TokenType.START, "START");
-            put(TokenType.STOP, "STOP");
-            put(TokenType.IF, "IF");
-            put(TokenType.ELSE, "ELSE");
-            put(TokenType.WHILE, "WHILE");
-        }
-    };
+    public static final Map<String, TokenType> reservedWords = new HashMap<String, TokenType>();
+    public static final Map<TokenType, String> tokenTypeToLexeme = new EnumMap<TokenType, String>(TokenType.class);
+    public static final Set<TokenType> logicalComparisonOperators = EnumSet.of(
+            TokenType.GREATER,
+            TokenType.LESSER,
+            TokenType.GREATER_EQUAL,
+            TokenType.LESSER_EQUAL,
+            TokenType.EQUAL,
+            TokenType.NOT_EQUAL,
+            TokenType.AND,
+            TokenType.OR,
+            TokenType.NOT);
 
-    public static final HashSet<TokenType> logicalComparisonOperators = new HashSet<TokenType>() {
-        {
-            add(TokenType.GREATER);
-            add(TokenType.LESSER);
-            add(TokenType.GREATER_EQUAL);
-            add(TokenType.LESSER_EQUAL);
-            add(TokenType.EQUAL);
-            add(TokenType.NOT_EQUAL);
-            add(TokenType.AND);
-            add(TokenType.OR);
-            add(TokenType.NOT);
+    static {
+        TokenType[] words = {
+                TokenType.AND, TokenType.OR, TokenType.NOT,
+                TokenType.OUTPUT, TokenType.INPUT,
+                TokenType.VAR, TokenType.AS,
+                TokenType.INT, TokenType.BOOL, TokenType.FLOAT, TokenType.CHAR,
+                TokenType.START, TokenType.STOP,
+                TokenType.IF, TokenType.ELSE, TokenType.WHILE,
+                TokenType.FOR, TokenType.TO, TokenType.STEP,
+                TokenType.SUB, TokenType.FUNCTION, TokenType.RETURN,
+                TokenType.BREAK, TokenType.CONTINUE,
+                TokenType.CASE, TokenType.OF, TokenType.END,
+                TokenType.PARALLEL, TokenType.REDUCE,
+                TokenType.INCLUDE,
+        };
+        for (TokenType word : words) {
+            reservedWords.put(word.name(), word);
+            tokenTypeToLexeme.put(word, word.name());
         }
-    };
+        tokenTypeToLexeme.put(TokenType.LEFT_PARENTHESIS, "(");
+        tokenTypeToLexeme.put(TokenType.RIGHT_PARENTHESIS, ")");
+        tokenTypeToLexeme.put(TokenType.LEFT_BRACE, "[");
+        tokenTypeToLexeme.put(TokenType.RIGHT_BRACE, "]");
+        tokenTypeToLexeme.put(TokenType.COMMA, ",");
+        tokenTypeToLexeme.put(TokenType.ASSIGNMENT, "=");
+        tokenTypeToLexeme.put(TokenType.COLON, ":");
+        tokenTypeToLexeme.put(TokenType.OCTOTHORPE, "#");
+        tokenTypeToLexeme.put(TokenType.AMPERSAND, "&");
+        tokenTypeToLexeme.put(TokenType.ADDITION, "+");
+        tokenTypeToLexeme.put(TokenType.SUBTRACTION, "-");
+        tokenTypeToLexeme.put(TokenType.MULTIPLICATION, "*");
+        tokenTypeToLexeme.put(TokenType.DIVISION, "/");
+        tokenTypeToLexeme.put(TokenType.MODULO, "%");
+        tokenTypeToLexeme.put(TokenType.GREATER, ">");
+        tokenTypeToLexeme.put(TokenType.LESSER, "<");
+        tokenTypeToLexeme.put(TokenType.GREATER_EQUAL, ">=");
+        tokenTypeToLexeme.put(TokenType.LESSER_EQUAL, "<=");
+        tokenTypeToLexeme.put(TokenType.EQUAL, "==");
+        tokenTypeToLexeme.put(TokenType.NOT_EQUAL, "<>");
+    }
 
     public static boolean checkType(Object value, TokenType... variableType) {
         boolean result = false;
@@ -126,6 +107,8 @@ public class Token {
     final Object literal;
     final int line;
     final int column;
+    // The module the token was read from, or null for the program itself.
+    CFPL source;
 
     public Token(TokenType type, String lexeme, Object literal, int line, int column) {
         this.type = type;
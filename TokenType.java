@@ -24,5 +24,12 @@ public enum TokenType {
     VAR, AS,
     INT, BOOL, FLOAT, CHAR,
     START, STOP,
-    IF, ELSE, WHILE, EOL, EOF
+    IF, ELSE, WHILE,
+    FOR, TO, STEP,
+    SUB, FUNCTION, RETURN,
+    BREAK, CONTINUE,
+    CASE, OF, END,
+    PARALLEL, REDUCE,
+    INCLUDE,
+    EOL, EOF
 }
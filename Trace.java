@@ -0,0 +1,203 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Flight-data recorder for one program run.
+//
+// Executed statements, IF/WHILE decisions and variable writes are stored as
+// fixed-size records in a preallocated off-heap ring buffer that keeps the last
+// `capacity` events, rounded up to a power of two; recording allocates nothing.
+// dump() writes the buffer together with the source and variable names, and
+// decode() renders a dump against that source.
+//
+// Record layout, RECORD_SIZE bytes:
+// kind (1) | detail (1) | unused (2) | line (4) | column (4) | name (4) | value (8)
+class Trace implements Probe {
+    static final int DEFAULT_CAPACITY = 65536;
+    private static final int RECORD_SIZE = 24;
+    private static final int MAGIC = 0x43465054; // "CFPT"
+    private static final int VERSION = 1;
+
+    private static final byte STATEMENT = 1;
+    private static final byte BRANCH = 2;
+    private static final byte WRITE = 3;
+
+    // Branch details.
+    private static final byte IF = 1;
+    private static final byte WHILE = 2;
+
+    // Write details: the type of the value.
+    private static final byte NONE = 0;
+    private static final byte INT = 1;
+    private static final byte FLOAT = 2;
+    private static final byte BOOL = 3;
+    private static final byte CHAR = 4;
+
+    private final CFPL cfpl;
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final Map<String, Integer> nameIds = new HashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+    private long written = 0;
+
+    Trace(CFPL cfpl, int capacity) {
+        this.cfpl = cfpl;
+        this.capacity = Integer.highestOneBit(Math.max(1, capacity - 1)) << (capacity > 1 ? 1 : 0);
+        this.mask = this.capacity - 1;
+        this.buffer = ByteBuffer.allocateDirect(this.capacity * RECORD_SIZE);
+    }
+
+    @Override
+    public void register(ParsingStatement stmt) {
+        if (stmt instanceof ParsingStatement.Var)
+            nameId(((ParsingStatement.Var) stmt).name.lexeme);
+    }
+
+    private int nameId(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            nameIds.put(name, id);
+            names.add(name);
+        }
+
+        return id;
+    }
+
+    private void record(byte kind, byte detail, Token token, int name, long value) {
+        int offset = ((int) written++ & mask) * RECORD_SIZE;
+        buffer.put(offset, kind);
+        buffer.put(offset + 1, detail);
+        buffer.putInt(offset + 4, token.line);
+        buffer.putInt(offset + 8, token.column);
+        buffer.putInt(offset + 12, name);
+        buffer.putLong(offset + 16, value);
+    }
+
+    @Override
+    public void statementEnter(ParsingStatement stmt) {
+        if (!(stmt instanceof ParsingStatement.Block))
+            record(STATEMENT, NONE, stmt.token, -1, 0);
+    }
+
+    @Override
+    public void conditionExit(ParsingStatement owner, Object value) {
+        record(BRANCH, owner instanceof ParsingStatement.While ? WHILE : IF, owner.token, -1,
+                Boolean.TRUE.equals(value) ? 1 : Boolean.FALSE.equals(value) ? 0 : -1);
+    }
+
+    @Override
+    public void assign(Token name, Object value) {
+        if (value instanceof Integer)
+            record(WRITE, INT, name, nameId(name.lexeme), (int) value);
+        else if (value instanceof Double)
+            record(WRITE, FLOAT, name, nameId(name.lexeme), Double.doubleToRawLongBits((double) value));
+        else if (value instanceof Boolean)
+            record(WRITE, BOOL, name, nameId(name.lexeme), (boolean) value ? 1 : 0);
+        else if (value instanceof Character)
+            record(WRITE, CHAR, name, nameId(name.lexeme), (char) value);
+        else
+            record(WRITE, NONE, name, nameId(name.lexeme), 0);
+    }
+
+    long written() {
+        return written;
+    }
+
+    void dump(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, cfpl.getSourceCode());
+            out.writeInt(names.size());
+            for (String name : names)
+                writeString(out, name);
+            int count = (int) Math.min(written, capacity);
+            out.writeLong(written);
+            out.writeInt(count);
+            byte[] record = new byte[RECORD_SIZE];
+            for (long i = written - count; i < written; i++) {
+                buffer.get(((int) i & mask) * RECORD_SIZE, record);
+                out.write(record);
+            }
+        }
+    }
+
+    // Unlike writeUTF, not limited to 64 KB.
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void decode(String path, PrintStream out) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(String.format("%s is not a CFPL trace.", path));
+            CFPL cfpl = CFPL.fromSource(readString(in));
+            String[] names = new String[in.readInt()];
+            for (int i = 0; i < names.length; i++)
+                names[i] = readString(in);
+            long written = in.readLong();
+            int count = in.readInt();
+            out.println(String.format("Trace: last %d of %d events", count, written));
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            for (long sequence = written - count; sequence < written; sequence++) {
+                in.readFully(record.array());
+                byte kind = record.get(0);
+                byte detail = record.get(1);
+                int line = record.getInt(4);
+                int column = record.getInt(8);
+                int name = record.getInt(12);
+                long value = record.getLong(16);
+                String event;
+                if (kind == STATEMENT)
+                    event = cfpl.getCodeAtLine(line).trim();
+                else if (kind == BRANCH)
+                    event = String.format("%s -> %s", detail == WHILE ? "WHILE" : "IF",
+                            value == 1 ? "TRUE" : value == 0 ? "FALSE" : "error");
+                else if (kind == WRITE)
+                    event = String.format("%s = %s", name >= 0 && name < names.length ? names[name] : "?",
+                            value(detail, value));
+                else
+                    event = String.format("unknown record %d", kind);
+                out.println(String.format("%10d %6d:%-4d %-9s %s", sequence, line + 1, column,
+                        kind == STATEMENT ? "statement" : kind == BRANCH ? "branch" : "write", event));
+            }
+        }
+    }
+
+    private static String value(byte type, long value) {
+        switch (type) {
+            case INT:
+                return Long.toString(value);
+            case FLOAT:
+                return Double.toString(Double.longBitsToDouble(value));
+            case BOOL:
+                return value != 0 ? "TRUE" : "FALSE";
+            case CHAR:
+                return "'" + (char) value + "'";
+            default:
+                return "null";
+        }
+    }
+}
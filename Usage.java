@@ -0,0 +1,34 @@
+import java.lang.management.ManagementFactory;
+
+// Resource usage of one program run, filled in by CFPL.execute.
+//
+// allocatedBytes counts every byte the executing thread allocated while the
+// program ran, as reported by com.sun.management.ThreadMXBean, or -1 when the
+// JVM cannot measure it. Loading the management classes costs tens of
+// milliseconds, so only runs that pass a Usage or set a memory limit measure
+// allocation at all.
+class Usage {
+    long statements = 0;
+    long loopIterations = 0;
+    long outputBytes = 0;
+    long allocatedBytes = -1;
+    long peakStringLength = 0;
+    long liveValues = 0;
+
+    private static class Threads {
+        static final com.sun.management.ThreadMXBean BEAN = bean();
+
+        private static com.sun.management.ThreadMXBean bean() {
+            if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+                return null;
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+                    .getThreadMXBean();
+            return bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled() ? bean : null;
+        }
+    }
+
+    // Bytes allocated by the current thread so far, or -1 when unsupported.
+    static long threadAllocatedBytes() {
+        return Threads.BEAN == null ? -1 : Threads.BEAN.getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,21 @@
+import java.io.PrintStream;
+import java.util.Set;
+
+// Traces every write to the watched variables, or to all variables when no
+// names are given, as "[watch] line:column name = value".
+class Watch implements Probe {
+    private final Set<String> names;
+    private final PrintStream out;
+
+    Watch(Set<String> names, PrintStream out) {
+        this.names = names;
+        this.out = out;
+    }
+
+    @Override
+    public void assign(Token name, Object value) {
+        if (names.isEmpty() || names.contains(name.lexeme))
+            out.println(String.format("[watch] %d:%d %s = %s", name.line + 1, name.column, name.lexeme,
+                    Debugger.show(value)));
+    }
+}
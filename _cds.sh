@@ -0,0 +1,7 @@
+# Startup profile: packages CFPL into out/cfpl.jar and records an AppCDS
+# archive of the classes loaded while running every program in ./tests.
+# Run programs afterwards with ./_run.sh <file path>.
+mkdir -p out/classes
+javac -encoding UTF-8 -d out/classes *.java
+jar --create --file out/cfpl.jar --main-class CFPL -C out/classes .
+java -XX:ArchiveClassesAtExit=out/cfpl.jsa -jar out/cfpl.jar --batch tests > /dev/null
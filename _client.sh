@@ -0,0 +1,14 @@
+# Thin client for a running `java CFPL --serve <socket>` daemon.
+# Usage: ./_client.sh <socket path> <file path>
+if [ -z "$2" ]
+    then
+        echo "Usage: _client.sh <socket path> <file path>"
+    else
+        file="$(cd "$(dirname "$2")" && pwd)/$(basename "$2")"
+        if command -v socat > /dev/null
+            then
+                { printf 'P %s\n' "$file"; cat; } | socat - "UNIX-CONNECT:$1"
+            else
+                { printf 'P %s\n' "$file"; cat; } | nc -U "$1"
+        fi
+fi
@@ -0,0 +1,6 @@
+# Builds a GraalVM native image of CFPL into ./out/cfpl.
+# Needs GraalVM's native-image on the PATH. Monitoring is enabled for the JFR
+# events and the Metrics MBean.
+mkdir -p out/classes
+javac -encoding UTF-8 -d out/classes *.java
+native-image --no-fallback --enable-monitoring=jfr,jmxserver -cp out/classes -o out/cfpl CFPL
@@ -0,0 +1,7 @@
+# Runs CFPL with the startup profile built by ./_cds.sh.
+if [ -f out/cfpl.jsa ]
+    then
+        java -XX:SharedArchiveFile=out/cfpl.jsa -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -jar out/cfpl.jar "$@"
+    else
+        echo "Run ./_cds.sh first."
+fi